@@ -11,13 +11,57 @@
 //
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 import ast.*;
 
 public class Checker {
 
-  static class TypeException extends Exception {
-    public TypeException(String msg) { super(msg); }
+  // A type error. Thrown to abort checking at the first error, or caught at
+  // a recovery point and recorded when collecting errors (see recover()).
+  // No stack trace is captured, and the message is only built when asked
+  // for, so raising one costs little more than allocating its Diagnostic.
+  //
+  public static class TypeException extends Exception {
+    final Diagnostic diag;
+
+    public TypeException(String head, Object... parts) {
+      super(null, null, false, false);
+      diag = new Diagnostic(head, parts);
+    }
+
+    public Diagnostic diagnostic() { return diag; }
+
+    public String getMessage() { return diag.message(); }
+  }
+
+  //------------------------------------------------------------------------------
+  // Diagnostic
+  //-----------
+  // A recorded type error: a fixed message head plus the values that
+  // complete the message. The text is concatenated on first use only.
+  //
+  public static final class Diagnostic {
+    private final String head;
+    private final Object[] parts;
+    private String msg = null;
+
+    Diagnostic(String head, Object[] parts) {
+      this.head = head;
+      this.parts = parts;
+    }
+
+    public String message() {
+      if (msg == null) {
+	StringBuilder sb = new StringBuilder(head);
+	for (Object p: parts)
+	  sb.append(p);
+	msg = sb.toString();
+      }
+      return msg;
+    }
+
+    public String toString() { return message(); }
   }
 
   //------------------------------------------------------------------------------
@@ -28,127 +72,1009 @@ public class Checker {
   static class ClassInfo {
     Ast.ClassDecl cdecl; 	// classDecl AST
     ClassInfo parent; 		// pointer to parent
+    HashMap<String, MethodSig> methods;      // flattened method table (own + inherited)
+    HashMap<String, Ast.VarDecl> fields;     // flattened field table (own + inherited)
+    int pre, last;	// preorder number, and last preorder number in the subtree
+    Ast.ObjType type;	// canonical ObjType of this class (see TypeTable)
+    boolean lib;	// a library class (see CheckerLib): in classEnv, not checked
 
     ClassInfo(Ast.ClassDecl cdecl, ClassInfo parent) { 
       this.cdecl = cdecl; 
       this.parent = parent; 
     }      
 
+    // Build the flattened member tables
+    // - start from a copy of the parent's tables, then enter this class's own
+    //   members so they override inherited ones
+    // - own members are entered last-to-first, so the first declaration of a
+    //   duplicated name wins (as the old linear scan did)
+    // - parent's tables must already be built (see Checker.buildTables)
+    //
+    void buildTables() {
+      methods = (parent == null) ? new HashMap<String, MethodSig>()
+				 : new HashMap<String, MethodSig>(parent.methods);
+      fields = (parent == null) ? new HashMap<String, Ast.VarDecl>()
+				: new HashMap<String, Ast.VarDecl>(parent.fields);
+      for (int i = cdecl.mthds.length - 1; i >= 0; i--)
+	methods.put(cdecl.mthds[i].nm, new MethodSig(cdecl.mthds[i], cdecl.nm));
+      for (int i = cdecl.flds.length - 1; i >= 0; i--)
+	fields.put(cdecl.flds[i].nm, cdecl.flds[i]);
+    }
+
+    // Return true if this class is c or one of c's descendants
+    // - c's subtree occupies the preorder interval [c.pre, c.last]
+    //
+    boolean isSubclassOf(ClassInfo c) {
+      return c.pre <= pre && pre <= c.last;
+    }
+
     // Return the name of this class 
     //
     String className() { return cdecl.nm; }
 
     // Given a method name, return the method's declaration
-    // - if the method is not found in the current class, recursively
-    //   search ancestor classes; return null if all fail
+    // - a single probe into the flattened table, which already holds
+    //   the methods of all ancestor classes; return null if not found
     //
     Ast.MethodDecl findMethodDecl(String mname) {
-      for (Ast.MethodDecl mdecl: cdecl.mthds)
-	if (mdecl.nm.equals(mname))
-	  return mdecl;
-      if (parent != null)
-        return parent.findMethodDecl(mname);
-      return null;
+      MethodSig s = methods.get(mname);
+      return (s == null) ? null : s.decl;
+    }
+
+    // Same, but return the method's resolved signature
+    //
+    MethodSig findMethodSig(String mname) {
+      return methods.get(mname);
     }
 
     // Given a field name, return the field's declaration
-    // - if the field is not found in the current class, recursively
-    //   search ancestor classes; return null if all fail
+    // - a single probe into the flattened table, which already holds
+    //   the fields of all ancestor classes; return null if not found
     //
     Ast.VarDecl findFieldDecl(String fname) {
-      for (Ast.VarDecl fdecl: cdecl.flds) {
-	if (fdecl.nm.equals(fname))
-	  return fdecl;
+      return fields.get(fname);
+    }
+
+    // Resolve the signatures of this class's own methods against types
+    // (inherited entries are the parent's, already resolved)
+    //
+    void resolveSigs(TypeTable types) {
+      for (Ast.MethodDecl m: cdecl.mthds) {
+	MethodSig s = methods.get(m.nm);
+	if (s.decl == m)
+	  s.resolve(types);
+      }
+    }
+  }
+
+  //------------------------------------------------------------------------------
+  // MethodSig
+  //----------
+  // A method as seen from a call site: its declaration plus the canonical
+  // types of its parameters and result, computed once per classEnv (see
+  // resolveSigs) instead of at every call. The flattened method tables map
+  // (class, method name) straight to these, so resolving a call is one probe
+  // and matching an argument of exactly the parameter's type is one compare.
+  //
+  static final class MethodSig {
+    final Ast.MethodDecl decl;
+    final String owner;		// name of the class declaring it
+    Ast.Type[] params;		// canonical parameter types
+    ClassInfo[] classes;	// class of each ObjType parameter (null if none)
+    boolean[] exact;		// an argument of type params[i] always matches
+    Ast.Type ret;		// canonical return type (null if none)
+
+    MethodSig(Ast.MethodDecl decl, String owner) {
+      this.decl = decl;
+      this.owner = owner;
+    }
+
+    void resolve(TypeTable types) {
+      int n = decl.params.length;
+      params = new Ast.Type[n];
+      classes = new ClassInfo[n];
+      exact = new boolean[n];
+      for (int i = 0; i < n; i++) {
+	params[i] = types.canonical(decl.params[i].t);
+	classes[i] = types.classOf(params[i]);
+	exact[i] = !(params[i] instanceof Ast.ObjType) || classes[i] != null;
       }
-      if (parent != null)
-        return parent.findFieldDecl(fname);
-      return null;
+      ret = types.canonical(decl.t);
     }
   }
 
   //------------------------------------------------------------------------------
-  // Global Variables
-  // ----------------
+  // TypeTable
+  //----------
+  // Hash-conses types: every distinct type has one canonical Ast.Type
+  // instance and a dense int ID. int and boolean are the Ast.IntType and
+  // Ast.BoolType singletons, each class has one ObjType, and each element
+  // type has one ArrayType. All types named in declarations are interned
+  // while classEnv is built; after that the table is only read (so parallel
+  // tasks can share it), and the check routines return canonical instances,
+  // so two types are equal exactly when they are the same object.
+  //
+  static class TypeTable {
+    static final int INT = 0, BOOL = 1;
+
+    private final ArrayList<Ast.Type> types = new ArrayList<Ast.Type>();	// by ID
+    private final ArrayList<ClassInfo> classes = new ArrayList<ClassInfo>();	// by ID
+    private final IdentityHashMap<Ast.Type, Integer> ids = new IdentityHashMap<Ast.Type, Integer>();
+    private final HashMap<String, Ast.ObjType> objTypes = new HashMap<String, Ast.ObjType>();
+    private final HashMap<Integer, Ast.ArrayType> arrayTypes = new HashMap<Integer, Ast.ArrayType>();
+
+    TypeTable() {
+      add(Ast.IntType, null);
+      add(Ast.BoolType, null);
+      intern(new Ast.ArrayType(Ast.IntType));
+      intern(new Ast.ArrayType(Ast.BoolType));
+    }
+
+    private int add(Ast.Type t, ClassInfo c) {
+      int id = types.size();
+      types.add(t);
+      classes.add(c);
+      ids.put(t, id);
+      return id;
+    }
+
+    // Create the canonical ObjType of class c
+    //
+    void addClass(ClassInfo c) {
+      c.type = new Ast.ObjType(c.className());
+      add(c.type, c);
+      objTypes.put(c.className(), c.type);
+    }
+
+    // Return the canonical instance of t, adding it to the table if new
+    // (t itself is remembered as an alias, so interning it again is a
+    // single identity-map probe)
+    //
+    Ast.Type intern(Ast.Type t) {
+      if (t == null)
+	return null;
+      if (t instanceof Ast.IntType)	// no probe needed for the primitives
+	return Ast.IntType;
+      if (t instanceof Ast.BoolType)
+	return Ast.BoolType;
+      Integer id = ids.get(t);
+      if (id != null)
+	return types.get(id);
+      Ast.Type c;
+      if (t instanceof Ast.ArrayType) {
+	Ast.Type et = intern(((Ast.ArrayType) t).et);
+	c = arrayTypes.get(ids.get(et));
+	if (c == null) {
+	  c = (((Ast.ArrayType) t).et == et) ? t : new Ast.ArrayType(et);
+	  arrayTypes.put(ids.get(et), (Ast.ArrayType) c);
+	  add(c, null);
+	}
+      } else if (t instanceof Ast.ObjType) {
+	c = objTypes.get(((Ast.ObjType) t).nm);
+	if (c == null) {		// a class that does not exist
+	  c = t;
+	  objTypes.put(((Ast.ObjType) t).nm, (Ast.ObjType) t);
+	  add(c, null);
+	}
+      } else {
+	return t;
+      }
+      ids.put(t, ids.get(c));
+      return c;
+    }
+
+    // Return the canonical instance of t without changing the table, or t
+    // itself if the table has no equal type
+    //
+    Ast.Type canonical(Ast.Type t) {
+      if (t == null)
+	return null;
+      if (t instanceof Ast.IntType)
+	return Ast.IntType;
+      if (t instanceof Ast.BoolType)
+	return Ast.BoolType;
+      Integer id = ids.get(t);
+      if (id != null)
+	return types.get(id);
+      if (t instanceof Ast.ArrayType) {
+	Integer eid = ids.get(canonical(((Ast.ArrayType) t).et));
+	Ast.ArrayType c = (eid == null) ? null : arrayTypes.get(eid);
+	return (c == null) ? t : c;
+      }
+      if (t instanceof Ast.ObjType) {
+	Ast.ObjType c = objTypes.get(((Ast.ObjType) t).nm);
+	return (c == null) ? t : c;
+      }
+      return t;
+    }
+
+    // Return t's ID, or -1 if t has no equal type in the table
+    //
+    int id(Ast.Type t) {
+      Integer id = ids.get(canonical(t));
+      return (id == null) ? -1 : id;
+    }
+
+    Ast.Type type(int id) { return types.get(id); }
+
+    int size() { return types.size(); }
+
+    // Return the class of ObjType t, or null if t is not a known class
+    //
+    ClassInfo classOf(Ast.Type t) {
+      int id = id(t);
+      return (id < 0) ? null : classes.get(id);
+    }
+
+    // Return the canonical array type of (canonical) element type et
+    //
+    Ast.Type arrayOf(Ast.Type et) {
+      Integer eid = ids.get(et);
+      Ast.ArrayType c = (eid == null) ? null : arrayTypes.get(eid);
+      return (c == null) ? new Ast.ArrayType(et) : c;
+    }
+  }
+
+  //------------------------------------------------------------------------------
+  // Symbols
+  //--------
+  // The names a check routine can bind (fields, params and local vars) of
+  // one program, interned to dense IDs once per program. A method's
+  // locals then live in flat arrays indexed by slot, found through the
+  // per-symbol slotOf table; see Checker State.
+  //
+  static final class Symbols {
+    private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+    int intern(String nm) {
+      Integer id = ids.get(nm);
+      if (id == null) {
+	id = ids.size();
+	ids.put(nm, id);
+      }
+      return id;
+    }
+
+    // Return nm's ID, or -1 if no declaration in the program binds nm
+    //
+    int id(String nm) {
+      Integer id = ids.get(nm);
+      return (id == null) ? -1 : id;
+    }
+
+    int size() { return ids.size(); }
+  }
+
+  //------------------------------------------------------------------------------
+  // Node Kinds
+  //-----------
+  // A small int tag per AST node class, for the routines that switch over
+  // every kind of node (the explicit-stack engine, fingerprints, node
+  // counts). kind() is a chain of instanceof tests, most frequent kinds
+  // first: Id, IntLit, Binop and BoolLit make up most of a program's
+  // expressions, and as no AST class has subclasses, each test compiles
+  // to a compare of the node's class. check(Ast.Exp) and check(Ast.Stmt)
+  // run the same chain themselves and call the routine directly, as
+  // finding the tag and then switching on it measures slower than either
+  // alone (see CheckerBench's dispatch).
+  //
+  static final int BLOCK = 0, ASSIGN = 1, CALLSTMT = 2, IF = 3, WHILE = 4,
+    PRINT = 5, RETURN = 6, BINOP = 7, UNOP = 8, CALL = 9, NEWARRAY = 10,
+    ARRAYELM = 11, NEWOBJ = 12, FIELD = 13, ID = 14, THIS = 15, INTLIT = 16,
+    BOOLLIT = 17, STRLIT = 18, OTHER = 19;
+
+  static final int NKINDS = OTHER + 1;
+
+  private static final Class<?>[] KIND_CLASSES = {
+    Ast.Block.class, Ast.Assign.class, Ast.CallStmt.class, Ast.If.class,
+    Ast.While.class, Ast.Print.class, Ast.Return.class, Ast.Binop.class,
+    Ast.Unop.class, Ast.Call.class, Ast.NewArray.class, Ast.ArrayElm.class,
+    Ast.NewObj.class, Ast.Field.class, Ast.Id.class, Ast.This.class,
+    Ast.IntLit.class, Ast.BoolLit.class, Ast.StrLit.class };
+
+  // Return the kind tag of AST node n
+  //
+  static int kind(Object n) {
+    if (n instanceof Ast.Id)       return ID;
+    if (n instanceof Ast.IntLit)   return INTLIT;
+    if (n instanceof Ast.Binop)    return BINOP;
+    if (n instanceof Ast.BoolLit)  return BOOLLIT;
+    if (n instanceof Ast.Call)     return CALL;
+    if (n instanceof Ast.Field)    return FIELD;
+    if (n instanceof Ast.This)     return THIS;
+    if (n instanceof Ast.ArrayElm) return ARRAYELM;
+    if (n instanceof Ast.NewObj)   return NEWOBJ;
+    if (n instanceof Ast.Unop)     return UNOP;
+    if (n instanceof Ast.NewArray) return NEWARRAY;
+    if (n instanceof Ast.Assign)   return ASSIGN;
+    if (n instanceof Ast.Block)    return BLOCK;
+    if (n instanceof Ast.If)       return IF;
+    if (n instanceof Ast.While)    return WHILE;
+    if (n instanceof Ast.CallStmt) return CALLSTMT;
+    if (n instanceof Ast.Return)   return RETURN;
+    if (n instanceof Ast.Print)    return PRINT;
+    if (n instanceof Ast.StrLit)   return STRLIT;
+    return OTHER;
+  }
+
+  // Return the AST class of kind k (k < OTHER)
+  //
+  static Class<?> kindClass(int k) {
+    return KIND_CLASSES[k];
+  }
+
+  //------------------------------------------------------------------------------
+  // Checker State
+  // -------------
+  // Held per Checker instance, so separate instances can check separate
+  // programs concurrently. One instance checks one program at a time.
+  //
   // For type-checking:
   // classEnv - an environment (a className-classInfo mapping) for class declarations
-  // typeEnv - an environment (a var-type mapping) for a method's params and local vars
+  // types - canonical types of the program (see TypeTable)
+  // symbols - bindable names of the program (see Symbols)
+  // slotOf, slotSym, slotType, slotPrev - the scope stack: every name
+  //   visible in the current class and method, one slot per binding.
+  //   slotOf maps a symbol to its innermost slot (-1 if unbound), slotSym
+  //   maps back, slotType holds the binding's type, and slotPrev the slot
+  //   the symbol had before (the undo log popScope replays). nslots slots
+  //   are in use.
+  // scopeBase - the first slot of each open scope; depth scopes are open:
+  //   the inherited fields, the class's own fields, then the current
+  //   method's params and local vars
   // thisCInfo - points to the current class's ClassInfo
   // thisMDecl - points to the current method's MethodDecl
-  // classObjects - The object is the key and its class is the value
-  // returns - stores all returns,if/else,whiles and a bool if they contained a return or not
+  // cfg - control-flow graph of the current method, for the must-return
+  //       and definite-assignment checks
+  // unassigned - Id nodes of the current method that may read a local var
+  //              before it is assigned
   // cInit - stores all decalred variables at the class\method scope
   // tempInit - Used to populate above lists and then is temp scope of ifs and whiles
   //
   // For other analyses:
   // (Define as you need.)
   //
-  private static HashMap<String, String> classObjects = new HashMap<String, String>();
-  private static HashMap<String, ClassInfo> classEnv = new HashMap<String, ClassInfo>();
-  private static HashMap<String, Ast.Type> typeEnv = new HashMap<String, Ast.Type>();
-  private static ClassInfo thisCInfo = null;
-  private static Ast.MethodDecl thisMDecl = null;
-  private static List<Pair> returns = new ArrayList<Pair>();
+  // pool - if set, method bodies are checked in parallel on this pool
+  // deps - if set, collects the names of classes looked up (incremental mode)
+  // maxErrors - if > 0, collect up to this many errors into diags instead
+  //             of stopping at the first
+  // stats - if set, timers and counters are recorded into it (see CheckerStats)
+  // typed - if set, what the checks find about each node is recorded into
+  //         it (see TypedAst)
+  // idle - task-local Checkers no CheckUnit is using, for reuse
+  //
+  private HashMap<String, ClassInfo> classEnv = new HashMap<String, ClassInfo>();
+  private TypeTable types = new TypeTable();
+  private Symbols symbols = new Symbols();
+  private int[] slotOf = new int[0];
+  private int[] slotSym = new int[16];
+  private Ast.Type[] slotType = new Ast.Type[16];
+  private int[] slotPrev = new int[16];
+  private int nslots = 0;
+  private int[] scopeBase = new int[4];
+  private int depth = 0;
+  private ClassInfo thisCInfo = null;
+  private Ast.MethodDecl thisMDecl = null;
+  private Cfg cfg = new Cfg();
+  private Set<Ast.Id> unassigned = Collections.newSetFromMap(new IdentityHashMap<Ast.Id, Boolean>());
+  private ForkJoinPool pool = null;
+  private HashSet<String> deps = null;
+  private int maxErrors = 0;
+  private List<Diagnostic> diags = null;
+  private CheckerStats stats = null;
+  private CheckerLib lib = null;
+  private boolean typing = false;
+  private TypedAst typed = null;
+  private final ConcurrentLinkedQueue<Checker> idle = new ConcurrentLinkedQueue<Checker>();
+
+  // Thrown out of every recovery point once maxErrors have been recorded
+  //
+  private static final TypeException LIMIT = new TypeException("(In Program) Too many errors");
+
+  // Create a checker that checks method bodies one by one
+  //
+  public Checker() {}
+
+  // Create a checker that checks every method body as its own task on pool
+  // - with one worker (the common pool has one on two CPUs), or one CPU
+  //   to run the workers on, tasks only add their cost to the sequential
+  //   path, so the pool is not used
+  //
+  public Checker(ForkJoinPool pool) {
+    if (pool != null && pool.getParallelism() > 1
+	&& Runtime.getRuntime().availableProcessors() > 1)
+      this.pool = pool;
+  }
+
+  // Create a task-local checker for one CheckUnit: it shares outer's
+  // (read-only) classEnv but has its own local environment and other
+  // scratch state
+  //
+  private Checker(Checker outer) { share(outer); }
+
+  // Point this task-local checker at outer's current program (its scope
+  // arrays are kept: they are sized by the symbol count, and allocating
+  // them per unit dominated checking programs with many small methods)
+  //
+  private void share(Checker outer) {
+    this.classEnv = outer.classEnv;
+    this.types = outer.types;
+    this.symbols = outer.symbols;
+    this.maxErrors = outer.maxErrors;
+    this.deep = this.room = outer.deep;
+    this.typed = outer.typed;		// units record disjoint nodes
+    this.thisCInfo = null;		// (its class scope is stale)
+  }
+
+  // Collect up to max errors per program instead of stopping at the first
+  // (max <= 0 restores stopping at the first)
+  //
+  public void setMaxErrors(int max) { maxErrors = max; }
+
+  // Record timers and counters into s from now on (null stops recording)
+  //
+  public void setStats(CheckerStats s) { stats = s; }
+
+  // Make lib's classes available to the programs checked (null: none)
+  //
+  void setLibrary(CheckerLib lib) {
+    this.lib = lib;
+    lastClasses = null;			// recheck must rebuild classEnv
+  }
+
+  public CheckerStats stats() { return stats; }
+
+  // Record a TypedAst for each program check(Ast.Program) checks from now
+  // on; typedAst() returns the last one (null if recording is off, or the
+  // last check was a recheck or a streamed check, which skip or drop nodes)
+  //
+  public void setTypedAst(boolean on) { typing = on; }
+
+  public TypedAst typedAst() { return typed; }
+
+  // Close every scope and open the scopes of class c: its inherited
+  // fields, then its own fields (a duplicate keeps the first binding;
+  // checkFields reports it)
+  //
+  private void openClassScope(ClassInfo c) {
+    while (depth > 0)
+      popScope();
+    if (slotOf.length < symbols.size()) {
+      slotOf = new int[symbols.size()];
+      Arrays.fill(slotOf, -1);
+    }
+    pushScope();
+    if (c.parent != null)
+      for (Map.Entry<String, Ast.VarDecl> e: c.parent.fields.entrySet())
+	bindLocal(e.getKey(), types.canonical(e.getValue().t));
+    pushScope();
+    for (Ast.VarDecl v: c.cdecl.flds)
+      bindLocal(v.nm, types.canonical(v.t));
+  }
+
+  private void pushScope() {
+    if (depth == scopeBase.length)
+      scopeBase = Arrays.copyOf(scopeBase, 2 * depth);
+    scopeBase[depth++] = nslots;
+  }
+
+  // Drop the innermost scope's bindings, newest first, so each name gets
+  // back the slot it had before the scope was opened
+  //
+  private void popScope() {
+    int base = scopeBase[--depth];
+    while (nslots > base) {
+      nslots--;
+      slotOf[slotSym[nslots]] = slotPrev[nslots];
+    }
+  }
+
+  // Bind name nm (which must be interned) to type t in the innermost
+  // scope, shadowing any outer binding; return the new slot, or -1 if
+  // the innermost scope already binds nm
+  //
+  private int bindLocal(String nm, Ast.Type t) {
+    int sym = symbols.id(nm);
+    int prev = slotOf[sym];
+    if (prev >= scopeBase[depth - 1])
+      return -1;
+    if (nslots == slotSym.length) {
+      slotSym = Arrays.copyOf(slotSym, 2 * nslots);
+      slotType = Arrays.copyOf(slotType, 2 * nslots);
+      slotPrev = Arrays.copyOf(slotPrev, 2 * nslots);
+    }
+    int slot = nslots++;
+    slotSym[slot] = sym;
+    slotType[slot] = t;
+    slotPrev[slot] = prev;
+    slotOf[sym] = slot;
+    return slot;
+  }
+
+  // Return the innermost slot of name nm, or -1 if nm is not bound
+  // - one probe of the symbol table per Id occurrence; a table keyed by
+  //   Id node, filled by a pass ahead of checking, probes faster but costs
+  //   more to fill than it saves while each occurrence is checked once
+  //   (the symbols bench in CheckerBench measures both)
+  //
+  private int local(String nm) {
+    int sym = symbols.id(nm);
+    return (sym < 0) ? -1 : slotOf[sym];
+  }
+
+  // Same, for the variable read by Id n (as a value, or as the object or
+  // array of a Call, Field or ArrayElm); reading a local that might not
+  // have been assigned yet is an error
+  //
+  private int local(Ast.Id n) throws Exception {
+    int slot = local(n.nm);
+    if (slot >= 0 && !unassigned.isEmpty() && unassigned.contains(n))
+      throw new TypeException("(In Id) Variable ", n.nm, " might not have been initialized");
+    return slot;
+  }
+
+  // Return the class of the object held in slot, or null if it does not
+  // hold an object of an existing class
+  //
+  private ClassInfo classOfLocal(int slot) {
+    Ast.Type t = slotType[slot];
+    return (t instanceof Ast.ObjType) ? lookupClass(((Ast.ObjType) t).nm) : null;
+  }
+
+  // Recovery point: called with an error caught around a declaration or
+  // statement. When collecting, record it and let checking continue with
+  // the next declaration or statement; otherwise rethrow it.
+  //
+  private void recover(TypeException e) throws TypeException {
+    if (diags == null || e == LIMIT)
+      throw e;
+    diags.add(e.diag);
+    if (diags.size() >= maxErrors)
+      throw LIMIT;
+  }
+
+  // Turn the exception that ended a check (null if none) into a Result
+  //
+  private Result outcome(TypeException e) {
+    if (diags == null)
+      return new Result(e);
+    if (e != null && e != LIMIT && diags.size() < maxErrors)
+      diags.add(e.diag);
+    return new Result(diags, e == LIMIT);
+  }
   
-  // generic class for pairs of objects
-  static class Pair<L,R>{ 
-	private final L left;
-	private final R right;
-
-    public Pair(L l, R r){
-		this.left = l;
-		this.right = r;
-	}
-
-	public L getLeft(){return left;}
-	public R getRight(){return right;}
-  }
-
-  // function to run at end of each method to verify return statements
-  private static boolean verifyReturns(){
-	boolean success = false;
-	boolean ifrtn = false;
-	boolean nested = false; // if there is a nesting happening
-	boolean nestrtn = false; // if both nested have returns
-	for(Pair p : returns){
-		switch(p.getLeft().toString()){
-			case "return":
-				success = true;
-				break;
-			case "while":
-				success = (boolean)p.getRight() ? false : true;
-				break;
-			case "Oif":
-			case "Oelse":
-				nested = true;
-				break;
-			case "if":
-				if(!(boolean)p.getRight()){
-					success = false;
-				}
-				else if (nested){
-					nestrtn = true;
-				}
-				else{
-					ifrtn = true;
-				}
-				break;
-			case "else":
-				if(!(boolean)p.getRight()){
-					success = false;
-				}
-				else if(ifrtn){
-					success = true;
-					ifrtn = false;
-				}
-				else if(nestrtn){
-					ifrtn = true;
-				}
-				break;
-			default:
-				break;
-		}
+  //------------------------------------------------------------------------------
+  // Control-Flow Graph
+  //-------------------
+  // A method body as a graph of basic blocks: maximal runs of straight-line
+  // statements. A block has at most two successors (a branch), kept in
+  // succ[2b] and succ[2b+1] (-1 if absent). Block ENTRY starts the body;
+  // block EXIT is reached by falling off its end. A Return ends its block
+  // with no successor, so control leaving through it never reaches EXIT.
+  //
+  // When tracking locals, each block also records its definite-assignment
+  // events in program order: assignments to, and Id reads of, the tracked
+  // locals (by slot). unassignedReads solves over these.
+  //
+  // The arrays are reused from method to method; building a graph
+  // allocates only when a method is larger than any before it.
+  //
+  static final class Cfg {
+    static final int ENTRY = 0, EXIT = 1;
+
+    int n;				// number of blocks
+    int[] succ = new int[64];
+    long[] reach = new long[1];		// scratch for mustReturn
+    int[] work = new int[32];
+
+    // Definite-assignment events, chained per block from head[b] through
+    // next[] (-1 ends a chain). ev[e] is slot << 1 for an assignment,
+    // slot << 1 | 1 for a read by Id node evId[e].
+    HashMap<String, Integer> slots;	// tracked locals, null if none
+    int limit;				// slots below this are in scope
+    int nev;
+    int[] ev = new int[64], next = new int[64];
+    Ast.Id[] evId = new Ast.Id[64];
+    int[] head = new int[32], tail = new int[32];
+    long[] in = new long[32], gen = new long[32];
+
+    // Explicit stacks for seq and reads
+    Object[] openNode = new Object[16];
+    int[] openPc = new int[16], openBlk = new int[16], openEnd = new int[16];
+    int nopen;
+    Ast.Exp[] todo = new Ast.Exp[16];
+    int ntodo;
+
+    // Build the graph of a method body: vars initialized at entry, then
+    // stmts. slots maps the tracked locals (declared in vars, in slot
+    // order) to their slots, or is null to skip recording events.
+    //
+    void build(Ast.VarDecl[] vars, Ast.Stmt[] stmts, HashMap<String, Integer> slots) {
+      this.slots = slots;
+      n = 0;
+      nev = 0;
+      block();			// ENTRY
+      block();			// EXIT
+      if (slots != null) {
+	limit = 0;		// an init sees only the vars declared before it
+	for (Ast.VarDecl v : vars) {
+	  if (v.init != null)
+	    reads(v.init, ENTRY);
+	  else if (slots.get(v.nm) == limit)
+	    limit++;
+	}
+	limit = slots.size();
+      }
+      int end = seq(stmts, ENTRY);
+      if (end >= 0)
+	edge(end, EXIT);
+    }
+
+    private int block() {
+      if (2 * n + 2 > succ.length)
+	succ = Arrays.copyOf(succ, 2 * succ.length);
+      if (n == head.length) {
+	head = Arrays.copyOf(head, 2 * n);
+	tail = Arrays.copyOf(tail, 2 * n);
+      }
+      succ[2 * n] = succ[2 * n + 1] = -1;
+      head[n] = tail[n] = -1;
+      return n++;
+    }
+
+    private void event(int b, int e, Ast.Id id) {
+      if (nev == ev.length) {
+	ev = Arrays.copyOf(ev, 2 * nev);
+	next = Arrays.copyOf(next, 2 * nev);
+	evId = Arrays.copyOf(evId, 2 * nev);
+      }
+      ev[nev] = e;
+      evId[nev] = id;
+      next[nev] = -1;
+      if (tail[b] < 0)
+	head[b] = nev;
+      else
+	next[tail[b]] = nev;
+      tail[b] = nev++;
+    }
+
+    // Record, in block b, the reads of tracked locals in e (left to right)
+    // - the subexpressions still to visit are kept on todo, rightmost
+    //   deepest, so a deep expression needs no deep recursion
+    //
+    private void reads(Ast.Exp e, int b) {
+      ntodo = 0;
+      later(e);
+      while (ntodo > 0) {
+	e = todo[--ntodo];
+	switch (kind(e)) {
+	case ID: {
+	  Integer k = slots.get(((Ast.Id) e).nm);
+	  if (k != null && k < limit)
+	    event(b, k << 1 | 1, (Ast.Id) e);
+	  break;
+	}
+	case BINOP:
+	  later(((Ast.Binop) e).e2);
+	  later(((Ast.Binop) e).e1);
+	  break;
+	case UNOP:
+	  later(((Ast.Unop) e).e);
+	  break;
+	case CALL: {
+	  Ast.Exp[] args = ((Ast.Call) e).args;
+	  for (int i = args.length - 1; i >= 0; i--)
+	    later(args[i]);
+	  later(((Ast.Call) e).obj);
+	  break;
 	}
-	return success;
+	case ARRAYELM:
+	  later(((Ast.ArrayElm) e).idx);
+	  later(((Ast.ArrayElm) e).ar);
+	  break;
+	case FIELD:
+	  later(((Ast.Field) e).obj);
+	  break;
+	}
+      }
+    }
+
+    private void later(Ast.Exp e) {
+      if (ntodo == todo.length)
+	todo = Arrays.copyOf(todo, 2 * ntodo);
+      todo[ntodo++] = e;
+    }
+
+    private void edge(int from, int to) {
+      succ[succ[2 * from] < 0 ? 2 * from : 2 * from + 1] = to;
+    }
+
+    // Add stmts to the graph, starting in block cur (-1 if control cannot
+    // reach them). Return the block control leaves stmts in, or -1.
+    //
+    // The statements whose children are still being added are kept on
+    // an explicit stack of open frames, so deep nesting needs no deep
+    // recursion. A frame is a statement list (a Block's, or stmts) or an
+    // If or While, with pc its number of steps taken. blk is the If's
+    // false branch (or the While's top) block, and end the block the If's
+    // true branch ended in. Taking step pc of a frame adds its next child,
+    // or when there is none, closes the frame and sets cur to the block
+    // control leaves it in.
+    //
+    private int seq(Ast.Stmt[] stmts, int cur) {
+      nopen = 0;
+      open(stmts, -1);
+      while (nopen > 0) {
+	int f = nopen - 1;
+	Object o = openNode[f];
+	int pc = openPc[f]++;
+	if (o instanceof Ast.If) {
+	  Ast.If c = (Ast.If) o;
+	  if (pc == 0) {
+	    cur = stmt(c.s1, cur);
+	  } else if (pc == 1) {
+	    openEnd[f] = cur;
+	    cur = openBlk[f];
+	    if (c.s2 != null)
+	      cur = stmt(c.s2, cur);
+	  } else {
+	    nopen--;
+	    int t = openEnd[f];
+	    if (t < 0 && cur < 0) {
+	      cur = -1;
+	    } else {
+	      int join = block();
+	      if (t >= 0) edge(t, join);
+	      if (cur >= 0) edge(cur, join);
+	      cur = join;
+	    }
+	  }
+	} else if (o instanceof Ast.While) {
+	  Ast.While c = (Ast.While) o;
+	  if (pc == 0) {
+	    cur = stmt(c.s, cur);
+	  } else {
+	    nopen--;
+	    int top = openBlk[f];
+	    if (cur >= 0)
+	      edge(cur, top);
+	    if (c.cond instanceof Ast.BoolLit && ((Ast.BoolLit) c.cond).b) {
+	      cur = -1;		// while (true) only exits by returning
+	    } else {
+	      cur = block();
+	      edge(top, cur);
+	    }
+	  }
+	} else {
+	  Ast.Stmt[] ss = (Ast.Stmt[]) o;
+	  if (pc < ss.length)
+	    cur = stmt(ss[pc], cur);
+	  else
+	    nopen--;
+	}
+      }
+      return cur;
+    }
+
+    // Add s, starting in block cur: a simple statement is added at once,
+    // a compound one opens a frame. Return the block to continue in.
+    //
+    private int stmt(Ast.Stmt s, int cur) {
+      if (cur < 0)
+	cur = block();		// unreachable code still gets a block
+      switch (kind(s)) {
+      case BLOCK:
+	open(((Ast.Block) s).stmts, -1);
+	return cur;
+      case ASSIGN:
+	if (slots != null) {
+	  Ast.Assign c = (Ast.Assign) s;
+	  Integer k = (c.lhs instanceof Ast.Id) ? slots.get(((Ast.Id) c.lhs).nm) : null;
+	  if (!(c.lhs instanceof Ast.Id))
+	    reads(c.lhs, cur);
+	  reads(c.rhs, cur);
+	  if (k != null)
+	    event(cur, k << 1, null);
+	}
+	return cur;
+      case CALLSTMT:
+	if (slots != null) {
+	  reads(((Ast.CallStmt) s).obj, cur);
+	  for (Ast.Exp a : ((Ast.CallStmt) s).args)
+	    reads(a, cur);
+	}
+	return cur;
+      case PRINT:
+	if (slots != null && ((Ast.Print) s).arg instanceof Ast.Exp)
+	  reads((Ast.Exp) ((Ast.Print) s).arg, cur);
+	return cur;
+      case IF: {
+	Ast.If c = (Ast.If) s;
+	if (slots != null)
+	  reads(c.cond, cur);
+	int t = block(), f = block();
+	edge(cur, t);
+	edge(cur, f);
+	open(c, f);
+	return t;
+      }
+      case WHILE: {
+	Ast.While c = (Ast.While) s;
+	int top = block(), body = block();
+	edge(cur, top);
+	if (slots != null)
+	  reads(c.cond, top);
+	edge(top, body);
+	open(c, top);
+	return body;
+      }
+      case RETURN:
+	if (slots != null && ((Ast.Return) s).val != null)
+	  reads(((Ast.Return) s).val, cur);
+	return -1;
+      default:
+	return cur;
+      }
+    }
+
+    private void open(Object node, int blk) {
+      if (nopen == openNode.length) {
+	openNode = Arrays.copyOf(openNode, 2 * nopen);
+	openPc = Arrays.copyOf(openPc, 2 * nopen);
+	openBlk = Arrays.copyOf(openBlk, 2 * nopen);
+	openEnd = Arrays.copyOf(openEnd, 2 * nopen);
+      }
+      openNode[nopen] = node;
+      openPc[nopen] = 0;
+      openBlk[nopen] = blk;
+      nopen++;
+    }
+
+    // True if every path from ENTRY ends in a Return, i.e. EXIT is not
+    // reachable. A worklist pass over the blocks, each visited once.
+    //
+    boolean mustReturn() {
+      int words = (n + 63) >>> 6;
+      if (reach.length < words)
+	reach = new long[Math.max(words, 2 * reach.length)];
+      Arrays.fill(reach, 0, words, 0L);
+      if (work.length < n)
+	work = new int[Math.max(n, 2 * work.length)];
+      int top = 0;
+      reach[0] |= 1L << ENTRY;
+      work[top++] = ENTRY;
+      while (top > 0) {
+	int b = work[--top];
+	for (int i = 2 * b; i <= 2 * b + 1; i++) {
+	  int t = succ[i];
+	  if (t >= 0 && (reach[t >>> 6] & (1L << t)) == 0) {
+	    reach[t >>> 6] |= 1L << t;
+	    work[top++] = t;
+	  }
+	}
+      }
+      return (reach[EXIT >>> 6] & (1L << EXIT)) == 0;
+    }
+
+    // Definite assignment: add to out every recorded Id that reads a
+    // tracked local which some path from ENTRY leaves unassigned.
+    //
+    // A forward must-problem with one bit per slot (set = assigned):
+    // in[b] is the meet (and) of out[p] over b's predecessors and
+    // out[b] = in[b] | gen[b]. Every in[] starts full except in[ENTRY];
+    // blocks are pending in a bitset and taken lowest number first,
+    // which is near program order, so most loops settle in two passes.
+    // Blocks unreachable from ENTRY stay full and report nothing.
+    //
+    void unassignedReads(Set<Ast.Id> out) {
+      int w = (slots.size() + 63) >>> 6;
+      if (in.length < n * w) {
+	in = new long[Math.max(n * w, 2 * in.length)];
+	gen = new long[in.length];
+      }
+      Arrays.fill(in, 0, n * w, -1L);
+      Arrays.fill(gen, 0, n * w, 0L);
+      Arrays.fill(in, ENTRY * w, ENTRY * w + w, 0L);
+      for (int b = 0; b < n; b++)
+	for (int e = head[b]; e >= 0; e = next[e])
+	  if ((ev[e] & 1) == 0)
+	    gen[b * w + (ev[e] >>> 7)] |= 1L << (ev[e] >>> 1);
+      int pw = (n + 63) >>> 6;
+      if (reach.length < pw)
+	reach = new long[Math.max(pw, 2 * reach.length)];
+      long[] pending = reach;
+      Arrays.fill(pending, 0, pw, 0L);
+      pending[0] = 1L << ENTRY;
+      int lo = 0;			// no pending word below this
+      while (true) {
+	while (lo < pw && pending[lo] == 0)
+	  lo++;
+	if (lo == pw)
+	  break;
+	int b = (lo << 6) + Long.numberOfTrailingZeros(pending[lo]);
+	pending[lo] &= ~(1L << b);
+	for (int i = 2 * b; i <= 2 * b + 1; i++) {
+	  int t = succ[i];
+	  if (t < 0)
+	    continue;
+	  boolean changed = false;
+	  for (int j = 0; j < w; j++) {
+	    long o = in[t * w + j] & (in[b * w + j] | gen[b * w + j]);
+	    if (o != in[t * w + j]) {
+	      in[t * w + j] = o;
+	      changed = true;
+	    }
+	  }
+	  if (changed) {
+	    pending[t >>> 6] |= 1L << t;
+	    lo = Math.min(lo, t >>> 6);
+	  }
+	}
+      }
+      for (int b = 0; b < n; b++) {
+	for (int e = head[b]; e >= 0; e = next[e]) {
+	  int k = ev[e] >>> 1;
+	  int j = b * w + (k >>> 6);
+	  if ((ev[e] & 1) == 0)
+	    in[j] |= 1L << k;	// in[b] is not needed again
+	  else if ((in[j] & (1L << k)) == 0)
+	    out.add(evId[e]);
+	}
+      }
+    }
+  }
+
+  //------------------------------------------------------------------------------
+  // Result
+  //-------
+  // The outcome of checking one program: success, or the type error that
+  // stopped the check. toString() gives the text main reports.
+  //
+  // When collecting errors, the Result instead holds every Diagnostic
+  // recorded (up to the limit), and toString() lists them one per line
+  // followed by a count.
+  //
+  public static class Result {
+    private final TypeException error;
+    private final List<Diagnostic> diags;	// null unless collecting
+    private final boolean truncated;		// stopped at the error limit
+
+    Result(TypeException error) {
+      this.error = error;
+      this.diags = null;
+      this.truncated = false;
+    }
+
+    Result(List<Diagnostic> diags, boolean truncated) {
+      this.error = null;
+      this.diags = diags;
+      this.truncated = truncated;
+    }
+
+    public boolean ok() { return error == null && (diags == null || diags.isEmpty()); }
+
+    public TypeException error() { return error; }
+
+    public List<Diagnostic> diagnostics() {
+      if (diags != null)
+	return Collections.unmodifiableList(diags);
+      return (error == null) ? Collections.<Diagnostic>emptyList()
+			     : Collections.singletonList(error.diag);
+    }
+
+    public String toString() {
+      if (diags == null)
+	return ok() ? "" : error + "\n";
+      if (diags.isEmpty())
+	return "";
+      StringBuilder sb = new StringBuilder();
+      for (Diagnostic d: diags)
+	sb.append(d.message()).append('\n');
+      sb.append(diags.size()).append(diags.size() == 1 ? " error" : " errors");
+      if (truncated)
+	sb.append(" (stopped at limit)");
+      return sb.append('\n').toString();
+    }
   }
 
   //------------------------------------------------------------------------------
@@ -166,11 +1092,15 @@ public class Checker {
   //     if (their class names match, or
   //         tdst's class name matches an tsrc ancestor's class name)
   //       return true
+  //     (the ancestor test is an interval check on the preorder numbers
+  //      assigned in check(Ast.Program), not a walk up the parent chain)
   //   else
   //     return false
   //
-  private static boolean assignable(Ast.Type tdst, Ast.Type tsrc) throws Exception {
-    if (tdst == tsrc
+  boolean assignable(Ast.Type tdst, Ast.Type tsrc) throws Exception {
+    if (stats != null)
+      stats.assignables++;
+    if (tdst == tsrc		// always the case for equal canonical types
 		|| (tdst instanceof Ast.IntType) && (tsrc instanceof Ast.IntType)
 		|| (tdst instanceof Ast.BoolType) && (tsrc instanceof Ast.BoolType)) {
       	return true;
@@ -184,94 +1114,1247 @@ public class Checker {
 	else if ((tdst instanceof Ast.ObjType) && (tsrc instanceof Ast.ObjType)){
 		Ast.ObjType dst = (Ast.ObjType)tdst;
 		Ast.ObjType src = (Ast.ObjType)tsrc;
-		if(dst.nm.equals(src.nm)){
-			return true;
+		if (deps != null) {
+			deps.add(dst.nm);
+			deps.add(src.nm);
 		}
-		else {
-			Ast.ClassDecl srcp = classEnv.get(src.nm).cdecl;
-			while(srcp.pnm != null){
-				if(srcp.pnm.equals(dst.nm)){
-					return true;
-				}
-				else{
-					srcp = classEnv.get(srcp.pnm).cdecl;
-				}
-			}
-			return false;
+		if (stats != null)
+			stats.subtypeTests++;
+		ClassInfo dstc = types.classOf(dst);
+		ClassInfo srcc = types.classOf(src);
+		if(dstc == null || srcc == null){
+			return dst.nm.equals(src.nm);
 		}
+		return srcc.isSubclassOf(dstc);
 	}
 	else {
 		return false;
 	}
   }
   
+  // Returns true if canonical types t1 and t2 are of the same sort: both
+  // int, both boolean, both arrays or both objects (the test arg() and
+  // returnValue() apply before any closer one).
+  // - int and boolean have one instance each, so for them this is a
+  //   reference compare; equal types of any sort are the same object
+  // - a void call's "type" is null, which is of no sort
+  //
+  static boolean sameSort(Ast.Type t1, Ast.Type t2) {
+    return t1 == t2
+      || (t1 instanceof Ast.ArrayType) && (t2 instanceof Ast.ArrayType)
+      || (t1 instanceof Ast.ObjType) && (t2 instanceof Ast.ObjType);
+  }
+
   // Returns true if t1 and t2 can be compared with "==" or "!=".
   //
-  private static boolean comparable(Ast.Type t1, Ast.Type t2) throws Exception {
+  boolean comparable(Ast.Type t1, Ast.Type t2) throws Exception {
     return assignable(t1,t2) || assignable(t2,t1);
   }
 
-  //------------------------------------------------------------------------------
-  // The Main Routine
-  //-----------------
-  //
-  public static void main(String [] args) throws Exception {
-    try {
-      if (args.length == 1) {
-        FileInputStream stream = new FileInputStream(args[0]);
-        Ast.Program p = new astParser(stream).Program();
-        stream.close();
-        check(p);
-      } else {
-	System.out.println("Need a file name as command-line argument.");
-      } 
-    } catch (TypeException e) {
-      System.err.print(e + "\n");
-    } catch (Exception e) {
-      System.err.print(e + "\n");
+  //------------------------------------------------------------------------------
+  // The Main Routine
+  //-----------------
+  //
+  // Usage: java Checker [options] file ...
+  //
+  // With a single file argument, the file is checked and its error (if any)
+  // is printed. With several files, a directory, or an @listfile, batch
+  // mode is used (see CheckerBatch).
+  //
+  // Options:
+  //   -par     build class tables and check method bodies in parallel on
+  //            the common fork/join pool
+  //   -j N     batch mode: number of worker threads (default: #cores)
+  //   -daemon PORT
+  //            serve check requests on a loopback port (see CheckerDaemon)
+  //   -cache DIR
+  //            reuse results for previously seen sources (see CheckerCache)
+  //   -cache-max N
+  //            keep at most N cached results (default 100000)
+  //   -max-errors N
+  //            report up to N errors per program instead of only the first
+  //   -stats   print phase timers and node/lookup counters for the programs
+  //            checked (after the report, or after the batch summary)
+  //   -stream  check each file a class at a time, without holding the whole
+  //            program in memory (see CheckerStream; -cache is not used)
+  //   -emit DIR
+  //            for each file that passes, write the interfaces of its classes
+  //            to DIR/<name>.mji (see CheckerLib)
+  //   -lib PATH
+  //            use the classes of an .mji file, or of a directory of them,
+  //            without their sources (may be repeated)
+  //   -typed DIR
+  //            for each file that passes, write its node types and resolved
+  //            members to DIR/<name>.mjt (see TypedAst; not with -stream)
+  //
+  // VERSION identifies the checker's behavior in cache keys; change it
+  // whenever a change to the checker can change a program's report.
+  //
+  static final String VERSION = "miniJava-checker-9";
+
+  static final String USAGE =
+    "Usage: java Checker [-par] [-j N] [-daemon PORT] [-cache DIR] [-cache-max N]"
+    + " [-max-errors N] [-stats] [-stream] [-emit DIR] [-lib PATH] [-typed DIR] file ...";
+
+  static class Options {
+    boolean parallel = false;
+    int workers = Runtime.getRuntime().availableProcessors();
+    int daemonPort = -1;
+    String cacheDir = null;
+    int cacheMax = 100000;
+    int maxErrors = 0;
+    CheckerCache cache = null;
+    CheckerStats stats = null;	// sum over the programs checked, with -stats
+    boolean stream = false;
+    String emitDir = null;
+    String typedDir = null;
+    List<String> libs = new ArrayList<String>();
+    CheckerLib lib = null;
+    List<String> inputs = new ArrayList<String>();
+
+    // Parse args into an Options; return null (after printing a message)
+    // if the args are malformed
+    //
+    static Options parse(String [] args) throws IOException {
+      Options opts = new Options();
+      try {
+	for (int i = 0; i < args.length; i++) {
+	  if (args[i].equals("-par")) {
+	    opts.parallel = true;
+	  } else if (args[i].equals("-j") && i + 1 < args.length) {
+	    opts.workers = number(args[i], args[++i]);
+	  } else if (args[i].equals("-daemon") && i + 1 < args.length) {
+	    opts.daemonPort = number(args[i], args[++i]);
+	  } else if (args[i].equals("-cache") && i + 1 < args.length) {
+	    opts.cacheDir = args[++i];
+	  } else if (args[i].equals("-cache-max") && i + 1 < args.length) {
+	    opts.cacheMax = number(args[i], args[++i]);
+	  } else if (args[i].equals("-max-errors") && i + 1 < args.length) {
+	    opts.maxErrors = number(args[i], args[++i]);
+	  } else if (args[i].equals("-stats") || args[i].equals("--stats")) {
+	    opts.stats = new CheckerStats();
+	  } else if (args[i].equals("-stream")) {
+	    opts.stream = true;
+	  } else if (args[i].equals("-emit") && i + 1 < args.length) {
+	    opts.emitDir = args[++i];
+	  } else if (args[i].equals("-typed") && i + 1 < args.length) {
+	    opts.typedDir = args[++i];
+	  } else if (args[i].equals("-lib") && i + 1 < args.length) {
+	    opts.libs.add(args[++i]);
+	  } else if (args[i].startsWith("-")) {
+	    System.out.println("Unknown option " + args[i]);
+	    return null;
+	  } else {
+	    opts.inputs.add(args[i]);
+	  }
+	}
+      } catch (NumberFormatException e) {
+	System.out.println(e.getMessage());
+	System.out.println(USAGE);
+	return null;
+      }
+      if (opts.cacheDir != null)
+	opts.cache = new CheckerCache(new File(opts.cacheDir), opts.cacheMax);
+      if (!opts.libs.isEmpty())
+	opts.lib = new CheckerLib(opts.libs);
+      return opts;
+    }
+
+    // The value of numeric option opt (NumberFormatException, with a
+    // message naming the option, if it is not a number)
+    //
+    static int number(String opt, String v) {
+      try {
+	return Integer.parseInt(v);
+      } catch (NumberFormatException e) {
+	throw new NumberFormatException("Bad number for " + opt + ": " + v);
+      }
+    }
+
+    // Tag for the options that affect a program's report, mixed into cache
+    // keys so results computed under different options are kept apart
+    //
+    String variant() {
+      return VERSION + " max-errors=" + Math.max(0, maxErrors)
+	+ ((lib == null) ? "" : " lib=" + lib.digest());
+    }
+
+    Checker newChecker() {
+      Checker checker = parallel ? new Checker(ForkJoinPool.commonPool()) : new Checker();
+      checker.setMaxErrors(maxErrors);
+      checker.setLibrary(lib);
+      checker.setTypedAst(typedDir != null);
+      if (stats != null)
+	checker.setStats(new CheckerStats());
+      return checker;
+    }
+  }
+
+  public static void main(String [] args) throws Exception {
+    Options opts = Options.parse(args);
+    if (opts == null)
+      return;
+    if (opts.daemonPort >= 0) {
+      CheckerDaemon.serve(opts);
+    } else if (opts.inputs.size() == 0) {
+      System.out.println("Need a file name as command-line argument.");
+    } else if (opts.inputs.size() == 1 && !CheckerBatch.isBatchInput(opts.inputs.get(0))) {
+      System.err.print(checkFile(opts.inputs.get(0), opts));
+      if (opts.stats != null)
+	System.err.print(opts.stats);
+    } else {
+      CheckerBatch.run(opts, System.out);
+    }
+  }
+
+  // Parse and check one file
+  // - return the text to report for it: empty if the program passed,
+  //   otherwise the error (a type error, or any other exception such as
+  //   a parse or I/O error) followed by a newline
+  // - with -emit or -typed, the cache is bypassed, so the files for a
+  //   program that passes are always written
+  //
+  static String checkFile(String fname, Options opts) {
+    if (opts.stream)
+      return CheckerStream.checkFile(fname, opts);
+    try {
+      if (opts.cache != null && opts.emitDir == null && opts.typedDir == null)
+	return checkBytes(java.nio.file.Files.readAllBytes(new File(fname).toPath()), opts);
+      FileInputStream stream = new FileInputStream(fname);
+      try {
+	return checkStream(stream, opts, fname);
+      } finally {
+	stream.close();
+      }
+    } catch (Exception e) {
+      return e + "\n";
+    }
+  }
+
+  // Same as checkFile, for program text held in source
+  // - with a result cache, a hit skips parsing and checking entirely
+  //
+  static String checkBytes(byte[] source, Options opts) {
+    if (opts.cache == null)
+      return checkStream(new ByteArrayInputStream(source), opts, null);
+    String key = opts.cache.key(source, opts.variant());
+    String report = opts.cache.get(key);
+    if (report == null) {
+      report = checkStream(new ByteArrayInputStream(source), opts, null);
+      opts.cache.put(key, report);
+    }
+    return report;
+  }
+
+  // Same as checkFile, for program text read from stream
+  // - with -stats, the checker's counts are added to opts.stats
+  // - if the program passes and fname (the source file) is not null, the
+  //   files -emit and -typed ask for are written
+  //
+  static String checkStream(InputStream stream, Options opts, String fname) {
+    Checker checker = opts.newChecker();
+    try {
+      long start = System.nanoTime();
+      Ast.Program p = new astParser(stream).Program();
+      if (checker.stats != null)
+	checker.stats.time(CheckerStats.PARSE, start);
+      Result r = checker.check(p);
+      if (fname != null && r.ok()) {
+	if (opts.emitDir != null)
+	  CheckerLib.write(p.classes, CheckerLib.emitFile(opts.emitDir, fname));
+	if (opts.typedDir != null)
+	  checker.typedAst().write(CheckerLib.outputFile(opts.typedDir, fname, TypedAst.SUFFIX));
+      }
+      return r.toString();
+    } catch (Exception e) {
+      return e + "\n";
+    } finally {
+      if (opts.stats != null)
+	opts.stats.add(checker.stats);
+    }
+  }
+
+  //------------------------------------------------------------------------------
+  // Checker Routines for Individual AST Nodes
+  //------------------------------------------
+
+  // Program ---
+  //  ClassDecl[] classes;
+  //
+  // 1. Sort ClassDecls, so parent will be visited before children.
+  // 2. For each ClassDecl, create a ClassInfo (with link to parent if exists),
+  //    and add to classEnv.
+  // 3. Number the classes for constant-time subtype tests: topoSort returns
+  //    a preorder, so a class's preorder number is its index, and its
+  //    subtree ends at the largest index among its descendants.
+  // 4. Actual type-checking traversal over ClassDecls.
+  //
+  // This is the public entry point: any state left from a previous program
+  // is dropped first, and a type error is returned as a Result rather than
+  // thrown. Other exceptions (e.g. I/O) still propagate.
+  //
+  public Result check(Ast.Program n) throws Exception {
+    diags = (maxErrors > 0) ? new ArrayList<Diagnostic>() : null;
+    room = deep;			// in case a previous check was cut short
+    typed = typing ? new TypedAst(n) : null;
+    if (stats != null)
+      stats.programs++;
+    try {
+      checkProgram(n);
+    } catch (TypeException e) {
+      return outcome(e);
+    }
+    return outcome(null);
+  }
+
+  private void checkProgram(Ast.Program n) throws Exception {
+    ClassInfo[] cinfos = buildClassEnv(n);
+    long start = (stats == null) ? 0 : System.nanoTime();
+    try {
+      if (pool != null) {
+	checkParallel(cinfos);
+	return;
+      }
+      for (ClassInfo c: cinfos){
+	if (!c.lib)
+	  check(c.cdecl);
+      }
+    } finally {
+      if (stats != null)
+	stats.time(CheckerStats.CHECK, start);
+    }
+  }
+
+  // Steps 1-3 above: build a fresh classEnv for n, and return its
+  // ClassInfos in topoSort order
+  //
+  ClassInfo[] buildClassEnv(Ast.Program n) throws Exception {
+    classEnv = new HashMap<String, ClassInfo>();
+    types = new TypeTable();
+    symbols = new Symbols();
+    long start = (stats == null) ? 0 : System.nanoTime();
+    Ast.ClassDecl[] classes = topoSort(withLibrary(n.classes));
+    if (stats != null) {
+      stats.time(CheckerStats.SORT, start);
+      start = System.nanoTime();
+    }
+    ClassInfo[] cinfos = new ClassInfo[classes.length];
+    for (int i = 0; i < classes.length; i++) {
+      Ast.ClassDecl c = classes[i];
+      ClassInfo pcinfo = (c.pnm == null) ? null : classEnv.get(c.pnm);
+      cinfos[i] = new ClassInfo(c, pcinfo);
+      cinfos[i].pre = cinfos[i].last = i;
+      cinfos[i].lib = (lib != null) && lib.contains(c);
+      classEnv.put(c.nm, cinfos[i]);
+      types.addClass(cinfos[i]);
+    }
+    for (int i = cinfos.length - 1; i >= 0; i--) {
+      ClassInfo p = cinfos[i].parent;
+      if (p != null && p.last < cinfos[i].last)
+	p.last = cinfos[i].last;
+    }
+    for (Ast.ClassDecl c: classes)
+      internDecls(c);
+    buildTables(cinfos);
+    if (stats != null)
+      stats.time(CheckerStats.ENV, start);
+    return cinfos;
+  }
+
+  // Build the member tables of cinfos (in topoSort order, numbered) and
+  // resolve their signatures
+  // - a class's tables start from a copy of its parent's, so only its
+  //   parent must be built first: with a pool, the classes are built in
+  //   waves, wave k holding the classes k levels below a root, and the
+  //   classes of a wave concurrently (a wave too small to split is built
+  //   on this thread)
+  // - building reads only the parent's tables, types and symbols, which
+  //   no longer change
+  //
+  static final int TABLE_GRAIN = 128;	// classes per task
+
+  private void buildTables(ClassInfo[] cinfos) {
+    if (pool == null || cinfos.length <= TABLE_GRAIN) {
+      for (ClassInfo c: cinfos) {	// topoSort order: parents first
+	c.buildTables();
+	c.resolveSigs(types);
+      }
+      return;
+    }
+    int[] level = new int[cinfos.length];
+    int levels = 0;
+    for (int i = 0; i < cinfos.length; i++) {
+      ClassInfo p = cinfos[i].parent;
+      level[i] = (p == null) ? 0 : level[p.pre] + 1;
+      levels = Math.max(levels, level[i] + 1);
+    }
+    int[] first = new int[levels + 1];	// wave l is waves[first[l] .. first[l+1])
+    for (int l: level)
+      first[l + 1]++;
+    for (int l = 0; l < levels; l++)
+      first[l + 1] += first[l];
+    ClassInfo[] waves = new ClassInfo[cinfos.length];
+    int[] next = first.clone();
+    for (int i = 0; i < cinfos.length; i++)
+      waves[next[level[i]]++] = cinfos[i];
+    for (int l = 0; l < levels; l++) {
+      TableTask t = new TableTask(waves, first[l], first[l + 1]);
+      if (first[l + 1] - first[l] <= TABLE_GRAIN)
+	t.compute();
+      else
+	pool.invoke(t);
+    }
+  }
+
+  private class TableTask extends RecursiveAction {
+    final ClassInfo[] cinfos;
+    final int lo, hi;
+
+    TableTask(ClassInfo[] cinfos, int lo, int hi) {
+      this.cinfos = cinfos;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    protected void compute() {
+      if (hi - lo > TABLE_GRAIN) {
+	int mid = (lo + hi) >>> 1;
+	invokeAll(new TableTask(cinfos, lo, mid), new TableTask(cinfos, mid, hi));
+	return;
+      }
+      for (int i = lo; i < hi; i++) {
+	cinfos[i].buildTables();
+	cinfos[i].resolveSigs(types);
+      }
+    }
+  }
+
+  // Return classes plus the library classes they can reach: the ones
+  // they name (as a parent, in a declared type, or in a new), and in turn
+  // the ones those name in their signatures. Unreachable library classes
+  // cannot affect the check, so leaving them out of classEnv makes its
+  // cost independent of the library's size. The classes added keep their
+  // library order, and a class of the program replaces a library class
+  // of the same name.
+  //
+  private Ast.ClassDecl[] withLibrary(Ast.ClassDecl[] classes) {
+    if (lib == null)
+      return classes;
+    HashSet<String> seen = new HashSet<String>(classes.length * 2);
+    ArrayList<String> todo = new ArrayList<String>();
+    for (Ast.ClassDecl c: classes) {
+      seen.add(c.nm);
+      classNames(c, todo);
+    }
+    ArrayList<Integer> found = new ArrayList<Integer>();
+    while (!todo.isEmpty()) {
+      String cname = todo.remove(todo.size() - 1);
+      int i = seen.add(cname) ? lib.indexOf(cname) : -1;
+      if (i >= 0) {
+	found.add(i);
+	classNames(lib.get(i), todo);
+      }
+    }
+    if (found.isEmpty())
+      return classes;
+    Collections.sort(found);
+    Ast.ClassDecl[] all = new Ast.ClassDecl[found.size() + classes.length];
+    for (int i = 0; i < found.size(); i++)
+      all[i] = lib.get(found.get(i));
+    System.arraycopy(classes, 0, all, found.size(), classes.length);
+    return all;
+  }
+
+  // Add to out the names of the classes c refers to: its parent, the
+  // classes in its declared types, and the classes its bodies create
+  //
+  private static void classNames(Ast.ClassDecl c, List<String> out) {
+    if (c.pnm != null)
+      out.add(c.pnm);
+    ArrayList<Object> stack = new ArrayList<Object>();
+    for (Ast.VarDecl v: c.flds) {
+      typeName(v.t, out);
+      stack.add(v.init);
+    }
+    for (Ast.MethodDecl m: c.mthds) {
+      typeName(m.t, out);
+      for (Ast.Param p: m.params)
+	typeName(p.t, out);
+      for (Ast.VarDecl v: m.vars) {
+	typeName(v.t, out);
+	stack.add(v.init);
+      }
+      stack.addAll(Arrays.asList((Object[]) m.stmts));
+    }
+    while (!stack.isEmpty()) {
+      Object o = stack.remove(stack.size() - 1);
+      if (o == null)
+	continue;
+      switch (kind(o)) {
+      case BLOCK:    stack.addAll(Arrays.asList((Object[]) ((Ast.Block) o).stmts)); break;
+      case ASSIGN:   stack.add(((Ast.Assign) o).lhs); stack.add(((Ast.Assign) o).rhs); break;
+      case CALLSTMT: stack.addAll(Arrays.asList((Object[]) ((Ast.CallStmt) o).args)); break;
+      case IF:       stack.add(((Ast.If) o).cond); stack.add(((Ast.If) o).s1); stack.add(((Ast.If) o).s2); break;
+      case WHILE:    stack.add(((Ast.While) o).cond); stack.add(((Ast.While) o).s); break;
+      case PRINT:    stack.add(((Ast.Print) o).arg); break;
+      case RETURN:   stack.add(((Ast.Return) o).val); break;
+      case BINOP:    stack.add(((Ast.Binop) o).e1); stack.add(((Ast.Binop) o).e2); break;
+      case UNOP:     stack.add(((Ast.Unop) o).e); break;
+      case CALL:     stack.addAll(Arrays.asList((Object[]) ((Ast.Call) o).args)); break;
+      case ARRAYELM: stack.add(((Ast.ArrayElm) o).ar); stack.add(((Ast.ArrayElm) o).idx); break;
+      case FIELD:    stack.add(((Ast.Field) o).obj); break;
+      case NEWOBJ:   out.add(((Ast.NewObj) o).nm); break;
+      default:       break;	// Id, This, literals, NewArray: no class names
+      }
+    }
+  }
+
+  private static void typeName(Ast.Type t, List<String> out) {
+    while (t instanceof Ast.ArrayType)
+      t = ((Ast.ArrayType) t).et;
+    if (t instanceof Ast.ObjType)
+      out.add(((Ast.ObjType) t).nm);
+  }
+
+  // Intern every type and bindable name in c's declarations, so the
+  // check routines only ever need read-only TypeTable and Symbols lookups
+  //
+  private void internDecls(Ast.ClassDecl c) {
+    for (Ast.VarDecl v: c.flds) {
+      types.intern(v.t);
+      symbols.intern(v.nm);
+    }
+    for (Ast.MethodDecl m: c.mthds) {
+      types.intern(m.t);
+      for (Ast.Param p: m.params) {
+	types.intern(p.t);
+	symbols.intern(p.nm);
+      }
+      for (Ast.VarDecl v: m.vars) {
+	types.intern(v.t);
+	symbols.intern(v.nm);
+      }
+    }
+  }
+
+  // Look up a class by name from within a check routine
+  // - in incremental mode, also record the class as a dependency of the
+  //   unit being checked
+  //
+  private ClassInfo lookupClass(String cname) {
+    if (deps != null)
+      deps.add(cname);
+    return classEnv.get(cname);
+  }
+
+  // Look up a method or field of class c from within a check routine
+  // (counted when recording stats)
+  //
+  private MethodSig findMethod(ClassInfo c, String mname) {
+    if (stats != null)
+      stats.methodLookups++;
+    return c.findMethodSig(mname);
+  }
+
+  private Ast.VarDecl findField(ClassInfo c, String fname) {
+    if (stats != null)
+      stats.fieldLookups++;
+    return c.findFieldDecl(fname);
+  }
+
+  //------------------------------------------------------------------------------
+  // Parallel Checking
+  //------------------
+  // Once classEnv is built it is only read, and every method body (plus
+  // each class's field declarations) can be checked independently. The
+  // CheckUnits run in batches as fork/join tasks (see UnitRange), each
+  // batch on a task-local Checker taken from idle. Checking waits for the
+  // whole classEnv, not just a class's ancestors, as a body may use any
+  // class; building classEnv is itself parallel (see buildTables).
+  // After all tasks finish, the error reported is the first one in sequential
+  // order (classes in topoSort order, then fields, then methods), so the
+  // diagnostic is the same one the sequential path would report.
+  //
+  private class CheckUnit extends RecursiveAction {
+    final ClassInfo cinfo;
+    final Ast.MethodDecl mdecl;	// null for the class's field declarations
+    HashSet<String> deps = null;	// if set, collects the classes looked up
+    List<Diagnostic> found = null;	// errors recorded, when collecting
+    CheckerStats stats = null;		// counts recorded, when recording
+    Exception error = null;		// the exception that ended the unit
+
+    CheckUnit(ClassInfo cinfo, Ast.MethodDecl mdecl) {
+      this.cinfo = cinfo;
+      this.mdecl = mdecl;
+    }
+
+    protected void compute() {
+      Checker sub = taskChecker();
+      run(sub);
+      idle.add(sub);
+    }
+
+    // Check the unit on sub, a task-local Checker; the class scope is
+    // left open for the next unit, and reopened only when sub's previous
+    // unit was of another class (or ended inside a method's scope)
+    //
+    void run(Checker sub) {
+      if (sub.thisCInfo != cinfo || sub.depth != 2) {
+	sub.thisCInfo = cinfo;
+	sub.openClassScope(cinfo);
+      }
+      sub.room = sub.deep;
+      sub.deps = deps;
+      if (deps != null)
+	deps.add(cinfo.className());
+      sub.diags = found = (maxErrors > 0) ? new ArrayList<Diagnostic>() : null;
+      sub.stats = stats = (Checker.this.stats != null) ? new CheckerStats() : null;
+      long start = 0;
+      if (stats != null) {
+	if (mdecl == null)
+	  stats.classes++;
+	start = System.nanoTime();
+      }
+      try {
+	if (mdecl == null)
+	  sub.checkFields(cinfo.cdecl);
+	else
+	  sub.check(mdecl);
+      } catch (TypeException e) {
+	if (found == null)
+	  error = e;			// LIMIT: found is already full
+      } catch (Exception e) {
+	error = e;
+      } finally {
+	if (stats != null)
+	  stats.timeClass(cinfo.className(), start);
+      }
+    }
+  }
+
+  // A task-local Checker for running CheckUnits: an idle one if there is
+  // one (give it back to idle when done), else a new one
+  //
+  private Checker taskChecker() {
+    Checker sub = idle.poll();
+    if (sub == null)
+      return new Checker(this);
+    sub.share(this);
+    return sub;
+  }
+
+  // Add the counts of the units just run into stats
+  //
+  private void addStats(List<CheckUnit> units) {
+    if (stats != null)
+      for (CheckUnit u: units)
+	stats.add(u.stats);
+  }
+
+  // Report the outcomes of units, in order, the way the sequential path
+  // would have: record (or throw) their errors until the first unit that
+  // ended abnormally
+  //
+  private void mergeUnits(List<CheckUnit> units) throws Exception {
+    for (CheckUnit u: units) {
+      if (u.found != null)
+	for (Diagnostic d: u.found) {
+	  diags.add(d);
+	  if (diags.size() >= maxErrors)
+	    throw LIMIT;
+	}
+      if (u.error != null)
+	throw u.error;
+    }
+  }
+
+  private void checkParallel(ClassInfo[] cinfos) throws Exception {
+    final List<CheckUnit> units = new ArrayList<CheckUnit>();
+    for (ClassInfo c: cinfos) {
+      if (c.lib)
+	continue;
+      units.add(new CheckUnit(c, null));
+      for (Ast.MethodDecl m: c.cdecl.mthds)
+	units.add(new CheckUnit(c, m));
+    }
+    pool.invoke(new UnitRange(units, 0, units.size()));
+    addStats(units);
+    mergeUnits(units);
+  }
+
+  // Run units[lo, hi), splitting the range in halves down to UNIT_GRAIN
+  // units per task; a task's units share one task-local Checker, and
+  // consecutive units of a class its class scope (per unit, setting these
+  // up cost more than most method bodies take to check)
+  //
+  static final int UNIT_GRAIN = 16;
+
+  private class UnitRange extends RecursiveAction {
+    final List<CheckUnit> units;
+    final int lo, hi;
+
+    UnitRange(List<CheckUnit> units, int lo, int hi) {
+      this.units = units;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    protected void compute() {
+      if (hi - lo > UNIT_GRAIN) {
+	int mid = (lo + hi) >>> 1;
+	invokeAll(new UnitRange(units, lo, mid), new UnitRange(units, mid, hi));
+	return;
+      }
+      Checker sub = taskChecker();
+      for (int i = lo; i < hi; i++)
+	units.get(i).run(sub);
+      idle.add(sub);
+    }
+  }
+
+  //------------------------------------------------------------------------------
+  // Streaming
+  //----------
+  // check(sigs, bodies) checks a program that is never held whole (see
+  // CheckerStream). classEnv is built from sigs: ClassDecls carrying only
+  // the class signatures, i.e. fields without inits and methods without
+  // vars or statements. Then, in topoSort order, each class's full
+  // ClassDecl is requested from bodies, checked with its own tables
+  // standing in for the signature's, and let go before the next class is
+  // requested. Peak memory is the signature tables plus one class.
+  //
+  // The Result is the one check(Ast.Program) gives for the program of the
+  // full ClassDecls; each body must have the signature it stands for.
+  //
+  public interface ClassBodies {
+    Ast.ClassDecl body(Ast.ClassDecl sig) throws Exception;
+  }
+
+  public Result check(Ast.ClassDecl[] sigs, ClassBodies bodies) throws Exception {
+    diags = (maxErrors > 0) ? new ArrayList<Diagnostic>() : null;
+    room = deep;
+    typed = null;
+    if (stats != null)
+      stats.programs++;
+    try {
+      for (ClassInfo c: buildClassEnv(new Ast.Program(sigs))) {
+	if (c.lib)
+	  continue;
+	Ast.ClassDecl body = bodies.body(c.cdecl);
+	if (!body.nm.equals(c.className())
+	    || Fingerprint.signature(body, 0) != Fingerprint.signature(c.cdecl, 0))
+	  throw new IllegalArgumentException("class " + body.nm + " does not match its signature");
+	long start = (stats == null) ? 0 : System.nanoTime();
+	try {
+	  checkStreamed(c, body);
+	} finally {
+	  if (stats != null)
+	    stats.time(CheckerStats.CHECK, start);
+	}
+      }
+    } catch (TypeException e) {
+      return outcome(e);
+    }
+    return outcome(null);
+  }
+
+  // Check body as class c, then restore c to its signature-only state
+  // (subclasses keep the signature's members, which resolve the same)
+  //
+  private void checkStreamed(ClassInfo c, Ast.ClassDecl body) throws Exception {
+    Ast.ClassDecl sig = c.cdecl;
+    HashMap<String, MethodSig> methods = c.methods;
+    HashMap<String, Ast.VarDecl> fields = c.fields;
+    c.cdecl = body;
+    c.buildTables();
+    internDecls(body);
+    c.resolveSigs(types);
+    try {
+      if (pool != null)
+	checkParallel(new ClassInfo[] { c });
+      else
+	check(body);
+    } finally {
+      c.cdecl = sig;
+      c.methods = methods;
+      c.fields = fields;
+    }
+  }
+
+  //------------------------------------------------------------------------------
+  // Incremental Checking
+  //---------------------
+  // recheck() remembers, for every CheckUnit of the previous run, a
+  // fingerprint of the unit's own text, the classes it resolved names
+  // through (as recorded by lookupClass, with their signature fingerprints),
+  // and its outcome. A class's signature fingerprint covers its name, parent,
+  // field types and method headers, and also its parent's signature, so an
+  // edit anywhere up the inheritance chain changes it. A unit is re-checked
+  // only if its own fingerprint or a dependency's signature changed;
+  // otherwise its previous outcome is reused.
+  //
+  // When no class signature changed (the common case: editing a method
+  // body), classEnv is kept as is, dependencies need no checking, and only
+  // classes whose ClassDecl is not the same object as last time are looked
+  // at, so when the caller keeps the nodes of unchanged code (as an editor
+  // holding its AST does) the cost is proportional to the edit rather than
+  // the program. After a re-parse every node is new, so every unit is
+  // fingerprinted again: one linear pass over the program, but no
+  // re-checking of units whose text is unchanged (see the recheck bench in
+  // CheckerBench).
+  //
+  private static class UnitState {
+    String name;		// method name, or null for the field declarations
+    Object node;		// MethodDecl (or ClassDecl for fields) last seen
+    long hash;			// fingerprint of node
+    HashMap<String, Long> deps;	// class name -> signature hash (0 if absent)
+    CheckUnit outcome;		// the run that produced the unit's result
+  }
+
+  private static class ClassState {
+    Ast.ClassDecl decl;		// ClassDecl last seen
+    long sig;			// its signature fingerprint
+    UnitState[] units;		// fields, then methods in declaration order
+  }
+
+  private Ast.ClassDecl[] lastClasses = null;	// previous input, as given
+  private ClassInfo[] lastCInfos = null;	// previous input, topoSort order
+  private HashMap<String, ClassState> classStates = new HashMap<String, ClassState>();
+
+  // Check n, re-checking only the units that changed (directly or through
+  // their dependencies) since the previous recheck on this Checker. The
+  // first call checks everything. The Result is the same as check(n)'s.
+  //
+  public Result recheck(Ast.Program n) throws Exception {
+    diags = (maxErrors > 0) ? new ArrayList<Diagnostic>() : null;
+    typed = null;
+    if (stats != null)
+      stats.programs++;
+    ClassInfo[] cinfos;
+    HashMap<String, Long> sigs = null;	// null: no signature changed
+    if (sameSignatures(n.classes)) {
+      cinfos = lastCInfos;
+    } else {
+      try {
+	cinfos = buildClassEnv(n);
+      } catch (TypeException e) {
+	lastClasses = null;
+	lastCInfos = null;
+	classStates.clear();
+	return outcome(e);
+      }
+      sigs = new HashMap<String, Long>(cinfos.length * 2);
+      for (ClassInfo c: cinfos) {
+	long phash = (c.parent == null) ? 0 : sigs.get(c.parent.className());
+	sigs.put(c.className(), Fingerprint.signature(c.cdecl, phash));
+      }
+    }
+    lastClasses = n.classes.clone();
+    lastCInfos = cinfos;
+
+    HashMap<String, ClassState> states = (sigs == null) ? classStates
+      : new HashMap<String, ClassState>(cinfos.length * 2);
+    final List<CheckUnit> dirty = new ArrayList<CheckUnit>();
+    List<UnitState> dirtyStates = new ArrayList<UnitState>();
+    for (ClassInfo c: cinfos) {
+      if (c.lib)
+	continue;
+      ClassState old = classStates.get(c.className());
+      if (sigs == null && old.decl == c.cdecl)
+	continue;			// untouched class, nothing can have changed
+      ClassState cs = new ClassState();
+      cs.decl = c.cdecl;
+      cs.sig = (sigs == null) ? old.sig : sigs.get(c.className());
+      cs.units = new UnitState[c.cdecl.mthds.length + 1];
+      for (int i = 0; i < cs.units.length; i++) {
+	Ast.MethodDecl m = (i == 0) ? null : c.cdecl.mthds[i - 1];
+	UnitState prev = (old == null) ? null : findUnit(old, i, m);
+	UnitState st = new UnitState();
+	st.name = (m == null) ? null : m.nm;
+	st.node = (m == null) ? c.cdecl : m;
+	st.hash = (prev != null && prev.node == st.node) ? prev.hash : Fingerprint.unit(c.cdecl, m);
+	if (prev != null && prev.hash == st.hash && (sigs == null || unchanged(prev.deps, sigs))) {
+	  st.deps = prev.deps;
+	  st.outcome = prev.outcome;
+	} else {
+	  st.outcome = new CheckUnit(c, m);
+	  st.outcome.deps = new HashSet<String>();
+	  dirty.add(st.outcome);
+	  dirtyStates.add(st);
+	}
+	cs.units[i] = st;
+      }
+      states.put(c.className(), cs);
+    }
+    long start = (stats == null) ? 0 : System.nanoTime();
+    if (pool != null && dirty.size() > 1) {
+      pool.invoke(new UnitRange(dirty, 0, dirty.size()));
+    } else {
+      for (CheckUnit u: dirty)
+	u.compute();
+    }
+    if (stats != null) {
+      stats.time(CheckerStats.CHECK, start);
+      addStats(dirty);
+    }
+    for (int i = 0; i < dirty.size(); i++) {
+      CheckUnit u = dirty.get(i);
+      UnitState st = dirtyStates.get(i);
+      st.deps = new HashMap<String, Long>(u.deps.size() * 2);
+      for (String cname: u.deps) {
+	ClassState dep = states.get(cname);
+	st.deps.put(cname, (dep == null) ? 0L : dep.sig);
+      }
+    }
+    classStates = states;
+    List<CheckUnit> units = new ArrayList<CheckUnit>();
+    for (ClassInfo c: cinfos)
+      if (!c.lib)
+	for (UnitState st: states.get(c.className()).units)
+	  units.add(st.outcome);
+    try {
+      mergeUnits(units);
+    } catch (TypeException e) {
+      return outcome(e);
+    }
+    return outcome(null);
+  }
+
+  // Return true if classes have the same names, parents and signatures,
+  // position by position, as in the previous recheck, and no changed
+  // class newly refers to a library class (classEnv holds only the
+  // library classes the previous input reached; see withLibrary)
+  // - a class whose ClassDecl is a different object gets its ClassInfo
+  //   pointed at the new ClassDecl (its tables are rebuilt, parents before
+  //   children, since a class's tables start from a copy of its parent's;
+  //   as the signature is unchanged, they resolve exactly as before)
+  //
+  private boolean sameSignatures(Ast.ClassDecl[] classes) {
+    if (lastClasses == null || lastClasses.length != classes.length)
+      return false;
+    HashMap<String, Ast.ClassDecl> changed = new HashMap<String, Ast.ClassDecl>();
+    for (int i = 0; i < classes.length; i++) {
+      Ast.ClassDecl c = classes[i], prev = lastClasses[i];
+      if (c == prev)
+	continue;
+      if (!c.nm.equals(prev.nm) || !Objects.equals(c.pnm, prev.pnm))
+	return false;
+      long phash = (c.pnm == null) ? 0 : classStates.get(c.pnm).sig;
+      if (Fingerprint.signature(c, phash) != classStates.get(c.nm).sig)
+	return false;
+      if (lib != null && needsLibrary(c))
+	return false;
+      changed.put(c.nm, c);
+    }
+    if (changed.isEmpty())
+      return true;
+    for (ClassInfo cinfo: lastCInfos) {	// topoSort order: parents first
+      Ast.ClassDecl c = changed.get(cinfo.className());
+      if (c == null)
+	continue;
+      cinfo.cdecl = c;
+      cinfo.buildTables();
+      internDecls(c);		// the bodies may declare new names
+      cinfo.resolveSigs(types);
+    }
+    return true;
+  }
+
+  // Return true if c refers to a library class that is not in classEnv
+  //
+  private boolean needsLibrary(Ast.ClassDecl c) {
+    ArrayList<String> names = new ArrayList<String>();
+    classNames(c, names);
+    for (String cname: names)
+      if (!classEnv.containsKey(cname) && lib.indexOf(cname) >= 0)
+	return true;
+    return false;
+  }
+
+  // Find the previous state of unit i (method m, or fields if m is null):
+  // at the same position if the name still matches, otherwise by name
+  //
+  private static UnitState findUnit(ClassState old, int i, Ast.MethodDecl m) {
+    String name = (m == null) ? null : m.nm;
+    if (i < old.units.length && Objects.equals(old.units[i].name, name))
+      return old.units[i];
+    for (UnitState st: old.units)
+      if (Objects.equals(st.name, name))
+	return st;
+    return null;
+  }
+
+  // Return true if every recorded dependency still has the same signature
+  //
+  private static boolean unchanged(HashMap<String, Long> deps, HashMap<String, Long> sigs) {
+    for (Map.Entry<String, Long> e: deps.entrySet()) {
+      Long h = sigs.get(e.getKey());
+      if (((h == null) ? 0L : h) != e.getValue())
+	return false;
+    }
+    return true;
+  }
+
+  //------------------------------------------------------------------------------
+  // Fingerprint
+  //------------
+  // A 64-bit FNV-1a style hash over the structure of AST fragments, used by
+  // recheck() to tell whether a class signature or a unit's text changed.
+  //
+  static class Fingerprint {
+    private static final long PRIME = 0x100000001b3L;
+    private long h = 0xcbf29ce484222325L;
+    private Object[] stack = new Object[16];	// mixTree's pending nodes
+    private int sp = 0;
+
+    void mix(long v) { h = (h ^ v) * PRIME; }
+
+    void mix(String str) {
+      if (str == null) {
+	mix(-1L);
+	return;
+      }
+      for (int i = 0; i < str.length(); i++)
+	h = (h ^ str.charAt(i)) * PRIME;
+      mix(str.length());
+    }
+
+    void mix(Ast.Type t) {
+      if (t == null) {
+	mix(0);
+      } else if (t instanceof Ast.IntType) {
+	mix(1);
+      } else if (t instanceof Ast.BoolType) {
+	mix(2);
+      } else if (t instanceof Ast.ArrayType) {
+	mix(3);
+	mix(((Ast.ArrayType) t).et);
+      } else if (t instanceof Ast.ObjType) {
+	mix(4);
+	mix(((Ast.ObjType) t).nm);
+      } else {
+	mix(t.getClass().getName());
+      }
+    }
+
+    void mix(Ast.VarDecl[] vars, boolean withInit) {
+      mix(vars.length);
+      for (Ast.VarDecl v: vars) {
+	mix(v.t);
+	mix(v.nm);
+	if (withInit)
+	  mixTree(v.init);
+      }
+    }
+
+    void mixHeader(Ast.MethodDecl m) {
+      mix(m.t);
+      mix(m.nm);
+      mix(m.params.length);
+      for (Ast.Param p: m.params) {
+	mix(p.t);
+	mix(p.nm);
+      }
+    }
+
+    // Mix in a statement or expression tree, in preorder
+    // - every node contributes a kind tag and its own data, and a child
+    //   count where that varies, so distinct trees hash differently
+    // - uses an explicit stack, so deep trees cannot overflow
+    //
+    void mixTree(Object root) {
+      int base = sp;
+      push(root);
+      while (sp > base) {
+	Object o = stack[--sp];
+	if (o == null) {
+	  mix(-1);
+	  continue;
+	}
+	int k = kind(o);
+	mix(k);
+	switch (k) {
+	case BLOCK:
+	  mix(((Ast.Block) o).stmts.length);
+	  pushAll(((Ast.Block) o).stmts);
+	  break;
+	case ASSIGN:
+	  push(((Ast.Assign) o).rhs);
+	  push(((Ast.Assign) o).lhs);
+	  break;
+	case CALLSTMT: {
+	  Ast.CallStmt c = (Ast.CallStmt) o;
+	  mix(c.nm);
+	  mix(c.args.length);
+	  pushAll(c.args);
+	  push(c.obj);
+	  break;
+	}
+	case IF:
+	  push(((Ast.If) o).s2);
+	  push(((Ast.If) o).s1);
+	  push(((Ast.If) o).cond);
+	  break;
+	case WHILE:
+	  push(((Ast.While) o).s);
+	  push(((Ast.While) o).cond);
+	  break;
+	case PRINT:
+	  push(((Ast.Print) o).arg);
+	  break;
+	case RETURN:
+	  push(((Ast.Return) o).val);
+	  break;
+	case BINOP:
+	  mix(((Ast.Binop) o).op.ordinal());
+	  push(((Ast.Binop) o).e2);
+	  push(((Ast.Binop) o).e1);
+	  break;
+	case UNOP:
+	  mix(((Ast.Unop) o).op.ordinal());
+	  push(((Ast.Unop) o).e);
+	  break;
+	case CALL: {
+	  Ast.Call c = (Ast.Call) o;
+	  mix(c.nm);
+	  mix(c.args.length);
+	  pushAll(c.args);
+	  push(c.obj);
+	  break;
+	}
+	case NEWARRAY:
+	  mix(((Ast.NewArray) o).et);
+	  mix(((Ast.NewArray) o).len);
+	  break;
+	case ARRAYELM:
+	  push(((Ast.ArrayElm) o).idx);
+	  push(((Ast.ArrayElm) o).ar);
+	  break;
+	case NEWOBJ:
+	  mix(((Ast.NewObj) o).nm);
+	  break;
+	case FIELD:
+	  mix(((Ast.Field) o).nm);
+	  push(((Ast.Field) o).obj);
+	  break;
+	case ID:
+	  mix(((Ast.Id) o).nm);
+	  break;
+	case INTLIT:
+	  mix(((Ast.IntLit) o).i);
+	  break;
+	case BOOLLIT:
+	  mix(((Ast.BoolLit) o).b ? 1 : 0);
+	  break;
+	case STRLIT:
+	  mix(((Ast.StrLit) o).s);
+	  break;
+	case THIS:
+	  break;
+	default:
+	  mix(o.getClass().getName());
+	}
+      }
+    }
+
+    private void push(Object node) {
+      if (sp == stack.length)
+	stack = Arrays.copyOf(stack, sp * 2);
+      stack[sp++] = node;
     }
-  }
 
-  //------------------------------------------------------------------------------
-  // Checker Routines for Individual AST Nodes
-  //------------------------------------------
+    // Push nodes so that they are popped (and mixed) left to right
+    //
+    private void pushAll(Object[] nodes) {
+      for (int i = nodes.length - 1; i >= 0; i--)
+	push(nodes[i]);
+    }
 
-  // Program ---
-  //  ClassDecl[] classes;
-  //
-  // 1. Sort ClassDecls, so parent will be visited before children.
-  // 2. For each ClassDecl, create a ClassInfo (with link to parent if exists),
-  //    and add to classEnv.
-  // 3. Actual type-checking traversal over ClassDecls.
-  //
-  static void check(Ast.Program n) throws Exception {
-    Ast.ClassDecl[] classes = topoSort(n.classes);
-    for (Ast.ClassDecl c: classes) {
-      ClassInfo pcinfo = (c.pnm == null) ? null : classEnv.get(c.pnm);
-      classEnv.put(c.nm, new ClassInfo(c, pcinfo));
+    // Signature of class c: name, parent, field types, method headers,
+    // and the parent's signature hash
+    //
+    static long signature(Ast.ClassDecl c, long parentHash) {
+      Fingerprint f = new Fingerprint();
+      f.mix(c.nm);
+      f.mix(c.pnm);
+      f.mix(parentHash);
+      f.mix(c.flds, false);
+      f.mix(c.mthds.length);
+      for (Ast.MethodDecl m: c.mthds)
+	f.mixHeader(m);
+      return f.h;
+    }
+
+    // Full text of a unit: method m, or c's field declarations if m is null
+    //
+    static long unit(Ast.ClassDecl c, Ast.MethodDecl m) {
+      Fingerprint f = new Fingerprint();
+      if (m == null) {
+	f.mix(c.flds, true);
+      } else {
+	f.mixHeader(m);
+	f.mix(m.vars, true);
+	f.mix(m.stmts.length);
+	for (Ast.Stmt s: m.stmts)
+	  f.mixTree(s);
+      }
+      return f.h;
     }
-    for (Ast.ClassDecl c: classes){
-      check(c);
-	}
   }
 
   // Utility routine
   // - Sort ClassDecls based on parent-chidren relationship.
+  // - Linear time: a preorder walk over a parent-to-children adjacency map,
+  //   starting from the root classes. Siblings keep their declaration order.
+  // - Since the order is preorder, each class's subtree occupies a contiguous
+  //   run of the result.
+  // - Duplicate class names, unknown parent classes and inheritance cycles
+  //   (classes never reached from a root) are reported as type errors.
   //
-  private static Ast.ClassDecl[] topoSort(Ast.ClassDecl[] classes) {
-    List<Ast.ClassDecl> cl = new ArrayList<Ast.ClassDecl>();
-    Vector<String> done = new Vector<String>();
-    int cnt = classes.length;
-    while (cnt > 0) {
+  static Ast.ClassDecl[] topoSort(Ast.ClassDecl[] classes) throws Exception {
+    HashMap<String, Ast.ClassDecl> byName = new HashMap<String, Ast.ClassDecl>(classes.length * 2);
+    HashMap<String, List<Ast.ClassDecl>> children = new HashMap<String, List<Ast.ClassDecl>>();
+    List<Ast.ClassDecl> roots = new ArrayList<Ast.ClassDecl>();
+    for (Ast.ClassDecl cd: classes)
+      if (byName.put(cd.nm, cd) != null)
+	throw new TypeException("(In Program) Duplicate class ", cd.nm);
+    for (Ast.ClassDecl cd: classes) {
+      if (cd.pnm == null) {
+	roots.add(cd);
+      } else if (!byName.containsKey(cd.pnm)) {
+	throw new TypeException("(In Program) Can't find parent class ", cd.pnm, " of ", cd.nm);
+      } else {
+	List<Ast.ClassDecl> kids = children.get(cd.pnm);
+	if (kids == null) {
+	  kids = new ArrayList<Ast.ClassDecl>();
+	  children.put(cd.pnm, kids);
+	}
+	kids.add(cd);
+      }
+    }
+    Ast.ClassDecl[] cl = new Ast.ClassDecl[classes.length];
+    int cnt = 0;
+    ArrayDeque<Ast.ClassDecl> stack = new ArrayDeque<Ast.ClassDecl>();
+    for (int i = roots.size() - 1; i >= 0; i--)
+      stack.push(roots.get(i));
+    while (!stack.isEmpty()) {
+      Ast.ClassDecl cd = stack.pop();
+      cl[cnt++] = cd;
+      List<Ast.ClassDecl> kids = children.get(cd.nm);
+      if (kids != null)
+	for (int i = kids.size() - 1; i >= 0; i--)
+	  stack.push(kids.get(i));
+    }
+    if (cnt < classes.length) {
+      // every class not reached from a root sits on (or below) a cycle
+      HashSet<String> done = new HashSet<String>();
+      for (int i = 0; i < cnt; i++)
+	done.add(cl[i].nm);
       for (Ast.ClassDecl cd: classes)
-		if (!done.contains(cd.nm)
-			&& ((cd.pnm == null) || done.contains(cd.pnm))) {
-		  cl.add(cd);
-		  done.add(cd.nm);
-		  cnt--;
-		} 
+	if (!done.contains(cd.nm))
+	  throw new TypeException("(In Program) Cyclic inheritance involving class ", cd.nm);
     }
-    return cl.toArray(new Ast.ClassDecl[0]);
+    return cl;
   }
 
   // ClassDecl ---
@@ -279,23 +2362,44 @@ public class Checker {
   //  VarDecl[] flds;
   //  MethodDecl[] mthds;
   //
-  //  1. Set thisCInfo pointer to this class's ClassInfo, and reset
-  //     typeEnv to empty.
+  //  1. Set thisCInfo pointer to this class's ClassInfo, and open its
+  //     class scope (all fields, own and inherited).
   //  2. Recursively check n.flds and n.mthds.
   //
-  static void check(Ast.ClassDecl n) throws Exception {
-	Ast.VarDecl[] flds = n.flds.clone();
+  void check(Ast.ClassDecl n) throws Exception {
 	Ast.MethodDecl[] mthds = n.mthds.clone();
 	thisCInfo = classEnv.get(n.nm);
-	typeEnv.clear();
-	classObjects.clear();
-	for(Ast.VarDecl var : flds){
-		typeEnv.put(var.nm, var.t);
-		check(var);
+	openClassScope(thisCInfo);
+	long start = 0;
+	if (stats != null) {
+		stats.classes++;
+		start = System.nanoTime();
+	}
+	try {
+		checkFields(n);
+		for(Ast.MethodDecl mth : mthds){
+			check(mth);
+		}
+	} finally {
+		if (stats != null)
+			stats.timeClass(n.nm, start);
 	}
-	for(Ast.MethodDecl mth : mthds){
-		typeEnv.put(mth.nm, mth.t);
-		check(mth);
+  }
+
+  // Check a class's field declarations (thisCInfo must already be set,
+  // and its class scope open)
+  // - a field may shadow an inherited one, but not one declared earlier
+  //   in the same class (the class tables keep the first of those)
+  //
+  void checkFields(Ast.ClassDecl n) throws Exception {
+	Ast.VarDecl[] flds = n.flds.clone();
+	for(Ast.VarDecl var : flds){
+		try {
+			if(findField(thisCInfo, var.nm) != var){
+				throw new TypeException("(In VarDecl) Field ", var.nm, " is already defined");
+			}
+			check(var);
+		} catch (TypeException e) { room = deep; recover(e); }
 	}
   }
 
@@ -306,36 +2410,111 @@ public class Checker {
   //  VarDecl[] vars;
   //  Stmt[] stmts;
   //
-  //  1. Set thisMDecl pointer and reset typeEnv to empty.
+  //  1. Set thisMDecl pointer and push a method scope over the class scope.
   //  2. Recursively check n.params, n.vars, and n.stmts.
-  //  3. For each VarDecl, add a new name-type binding to typeEnv.
+  //  3. For each Param and VarDecl, bind its name to its type in the
+  //     method scope (shadowing any field), making sure it is not
+  //     already bound there.
+  //  4. If the method returns a value, make sure no path through
+  //     n.stmts falls off the end without a Return (see Cfg).
+  //  5. Find the reads of VarDecls without an init that may come before
+  //     any assignment to them; check(Id) reports these.
+  //
+  //  The check is timed when recording stats, and reported as a JFR
+  //  MethodCheck event when a recording enables it.
   //
-  static void check(Ast.MethodDecl n) throws Exception {
+  void check(Ast.MethodDecl n) throws Exception {
+	CheckerStats.MethodCheckEvent event = new CheckerStats.MethodCheckEvent();
+	event.begin();
+	long start = (stats == null) ? 0 : System.nanoTime();
+	int errors = (diags == null) ? 0 : diags.size();
+	boolean passed = false;
+	try {
+		checkMethod(n);
+		passed = (diags == null) || diags.size() == errors;
+	} finally {
+		if (stats != null) {
+			stats.timeMethod(thisCInfo.className() + "." + n.nm, start);
+		}
+		if (event.shouldCommit()) {
+			event.className = thisCInfo.className();
+			event.methodName = n.nm;
+			event.statements = n.stmts.length;
+			event.passed = passed;
+			event.commit();
+		}
+	}
+  }
+
+  private void checkMethod(Ast.MethodDecl n) throws Exception {
 	Ast.Param[] params = n.params.clone();
 	Ast.VarDecl[] vars = n.vars.clone();
 	Ast.Stmt[] stmts = n.stmts.clone();
 	thisMDecl = n;
-	typeEnv.clear();
-	classObjects.clear();
-	returns.clear();
+	unassigned.clear();
+	HashMap<String, Integer> slots = null;
+	for(Ast.VarDecl var : vars){
+		if(var.init == null && !isParam(params, var.nm)){
+			if(slots == null){
+				slots = new HashMap<String, Integer>();
+			}
+			if(!slots.containsKey(var.nm)){
+				slots.put(var.nm, slots.size());
+			}
+		}
+	}
+	if(slots != null || n.t != null){
+		cfg.build(vars, stmts, slots);
+	}
+	if(slots != null){
+		cfg.unassignedReads(unassigned);
+	}
+	pushScope();
+	try {
+		checkBody(n, params, vars, stmts);
+	} finally {
+		popScope();
+	}
+  }
+
+  // Return true if one of params is named nm (the var named nm is then
+  // a duplicate, and reads of nm see the param)
+  //
+  private static boolean isParam(Ast.Param[] params, String nm) {
 	for(Ast.Param param : params){
-		typeEnv.put(param.nm, param.t);
-		check(param);
+		if(param.nm.equals(nm)){
+			return true;
+		}
+	}
+	return false;
+  }
+
+  // Check a method's params, vars and stmts inside its (open) scope
+  //
+  private void checkBody(Ast.MethodDecl n, Ast.Param[] params, Ast.VarDecl[] vars,
+			 Ast.Stmt[] stmts) throws Exception {
+	for(Ast.Param param : params){
+		try {
+			if(bindLocal(param.nm, types.canonical(param.t)) < 0){
+				throw new TypeException("(In Param) Variable ", param.nm, " is already defined");
+			}
+			check(param);
+		} catch (TypeException e) { room = deep; recover(e); }
 	}
 	for(Ast.VarDecl var : vars){
-		typeEnv.put(var.nm, var.t);
-		check(var);
+		try {
+			if(bindLocal(var.nm, types.canonical(var.t)) < 0){
+				throw new TypeException("(In VarDecl) Variable ", var.nm, " is already defined");
+			}
+			check(var);
+		} catch (TypeException e) { room = deep; recover(e); }
 	}
 	for(Ast.Stmt stmt : stmts){
 		check(stmt);
-		if(stmt instanceof Ast.Return){
-			returns.add(new Pair<String,Boolean>("return",true));
-		}
 	}
 	if(n.t != null){
-		boolean success = verifyReturns();
-		if(!success){
-			throw new TypeException("(In MethodDecl) Missing return statement");
+		if(!cfg.mustReturn()){
+			recover(new TypeException("(In MethodDecl) Missing return statement"));
 		}
 	}
   } 
@@ -346,11 +2525,11 @@ public class Checker {
   //
   //  If n.t is ObjType, make sure its corresponding class exists.
   //
-  static void check(Ast.Param n) throws Exception {
+  void check(Ast.Param n) throws Exception {
 	if(n.t instanceof Ast.ObjType){
 		Ast.ObjType clsnm = (Ast.ObjType)n.t;
-		if(!classEnv.containsKey(clsnm.nm))
-			throw new TypeException("(In Param) Can't find class " + clsnm.nm);
+		if(lookupClass(clsnm.nm) == null)
+			throw new TypeException("(In Param) Can't find class ", clsnm.nm);
 	}
   }
 
@@ -362,22 +2541,21 @@ public class Checker {
   //  1. If n.t is ObjType, make sure its corresponding class exists.
   //  2. If n.init exists, make sure it is assignable to the var.
   //
-  static void check(Ast.VarDecl n) throws Exception {
+  void check(Ast.VarDecl n) throws Exception {
 	if(n.t instanceof Ast.ObjType){
 		Ast.ObjType clsnm = (Ast.ObjType)n.t;
-		if(!classEnv.containsKey(clsnm.nm))
-			throw new TypeException("(In VarDecl) Can't find class " + clsnm.nm);
-		classObjects.put(n.nm, clsnm.nm);
+		if(lookupClass(clsnm.nm) == null)
+			throw new TypeException("(In VarDecl) Can't find class ", clsnm.nm);
 	}
 	if(n.init != null){
 		Ast.Type ini = check(n.init);
 		if(ini instanceof Ast.ObjType){
-			if(!classEnv.containsKey(((Ast.ObjType)ini).nm)){
-				throw new TypeException("(In VarDecl) Can't find class " + ((Ast.ObjType)ini).nm);
+			if(lookupClass(((Ast.ObjType)ini).nm) == null){
+				throw new TypeException("(In VarDecl) Can't find class ", ((Ast.ObjType)ini).nm);
 			}
 		}
 		if(!assignable(n.t, ini)){
-			throw new TypeException("(In VarDecl) rhs cannot be initialized to lhs " + ((Ast.ObjType)ini).nm);
+			throw new TypeException("(In VarDecl) rhs cannot be initialized to lhs ", ((Ast.ObjType)ini).nm);
 		}
 	}
   }
@@ -385,23 +2563,40 @@ public class Checker {
   // STATEMENTS
 
   // Dispatch a generic check call to a specific check routine
+  // - each statement is a recovery point: when collecting errors, an error
+  //   in it is recorded and checking resumes after it
+  // - past deep levels of nesting, the statement is checked on the
+  //   explicit stack instead (see run())
   // 
-  static void check(Ast.Stmt n) throws Exception {
-    if (n instanceof Ast.Block) 	check((Ast.Block) n);
-    else if (n instanceof Ast.Assign)   check((Ast.Assign) n);
-    else if (n instanceof Ast.CallStmt) check((Ast.CallStmt) n);
-    else if (n instanceof Ast.If) 	check((Ast.If) n);
-    else if (n instanceof Ast.While)    check((Ast.While) n);
-    else if (n instanceof Ast.Print)    check((Ast.Print) n);
-    else if (n instanceof Ast.Return)   check((Ast.Return) n);
-    else
-      throw new TypeException("(In Stmt) Illegal Ast Stmt: " + n);
+  void check(Ast.Stmt n) throws Exception {
+    if (stats != null)
+      stats.nodes[kind(n)]++;
+    if (room == 0) {
+      run(n);
+      return;
+    }
+    int left = --room;
+    try {
+      if (n instanceof Ast.Assign)        check((Ast.Assign) n);
+      else if (n instanceof Ast.Block)    check((Ast.Block) n);
+      else if (n instanceof Ast.If)       check((Ast.If) n);
+      else if (n instanceof Ast.While)    check((Ast.While) n);
+      else if (n instanceof Ast.CallStmt) check((Ast.CallStmt) n);
+      else if (n instanceof Ast.Return)   check((Ast.Return) n);
+      else if (n instanceof Ast.Print)    check((Ast.Print) n);
+      else
+	throw new TypeException("(In Stmt) Illegal Ast Stmt: ", n);
+    } catch (TypeException e) {
+      room = left;
+      recover(e);
+    }
+    room++;
   }
 
   // Block ---
   //  Stmt[] stmts;
   //
-  static void check(Ast.Block n) throws Exception {
+  void check(Ast.Block n) throws Exception {
 	for(Ast.Stmt stmt : n.stmts) {
 		check(stmt);
 	}
@@ -413,14 +2608,19 @@ public class Checker {
   //
   //  Make sure n.rhs is assignable to n.lhs.
   //
-  static void check(Ast.Assign n) throws Exception {
+  void check(Ast.Assign n) throws Exception {
 	Ast.Type exp1 = check(n.lhs);
 	Ast.Type exp2 = check(n.rhs);
+	assign(exp1, exp2);
+  }
+
+  // (the rule, given the lhs and rhs types)
+  private void assign(Ast.Type exp1, Ast.Type exp2) throws Exception {
 	if(exp2 == null){
 		return;
 	}
 	if(!assignable(exp1,exp2)){
-		throw new TypeException("(In Assign) lhs and rhs types don't match: " + exp1 + " <- " + exp2); // verify this
+		throw new TypeException("(In Assign) lhs and rhs types don't match: ", exp1, " <- ", exp2); // verify this
 	}
   }
 
@@ -434,69 +2634,93 @@ public class Checker {
   //  3. Check that the count and types of the actual arguments match those of
   //     the formal parameters.
   //
-  static void check(Ast.CallStmt n) throws Exception {
-	if(!((n.obj instanceof Ast.Id)|| (n.obj instanceof Ast.This))){
-		throw new TypeException("(In CallStmt) Must be Object type1 " + n.obj);
+  void check(Ast.CallStmt n) throws Exception {
+	MethodSig sig = callee(n);
+	for(int i = 0; i < n.args.length; ++i){
+		arg("(In CallStmt)", sig, i, check(n.args[i]));
 	}
-	if(n.obj instanceof Ast.Id){
-		Ast.Id clsnm = (Ast.Id)n.obj;
-		if(!(classObjects.containsKey(clsnm.nm))){
-			throw new TypeException("(In CallStmt) Class does not exist");
-		}
-		String cls = classObjects.get(clsnm.nm);
-		Ast.MethodDecl mthd = classEnv.get(cls).findMethodDecl(n.nm);
-		if(mthd == null){
-			throw new TypeException("(In CallStmt) Method does not exist");
-		}
-		if(mthd.params.length != n.args.length){
-			throw new TypeException("(In CallStmt) Param and arg counts don't match: " + mthd.params.length + " vs. " + n.args.length);
-		}
-		for(int i = 0; i < mthd.params.length; ++i){
-			Ast.Type type1 = mthd.params[i].t;
-			Ast.Type type2 = check(n.args[i]);
-			if(!(type1.getClass().equals(type2.getClass()))){
-				throw new TypeException("(In CallStmt) Param and arg types don't match: " + type1 + " vs. " + type2);
-			}
-			if(type1 instanceof Ast.ObjType){ // make sure object is correct class type
-				Ast.ObjType obj1 = (Ast.ObjType)type1;
-				Ast.ObjType obj2 = (Ast.ObjType)type2;
-				if(classEnv.containsKey(obj1.nm) && classEnv.containsKey(obj2.nm)){
-					if(!assignable(obj1,obj2)){
-						throw new TypeException("(In CallStmt) Param and arg types don't match: " + type1 + " vs. " + type2);
-					}
-				}
-				else{
-				throw new TypeException("(In CallStmt) Class does not exist.");
-				}
-			}
+  }
+
+  // (steps 1 and 2, and the arg count: return the method called)
+  private MethodSig callee(Ast.CallStmt n) throws Exception {
+	MethodSig sig = callee(true, n.obj, n.nm, n.args.length);
+	if(typed != null){
+		typed.member(n, sig.decl, sig.owner);
+	}
+	return sig;
+  }
+
+  // Resolve the method called by a CallStmt (stmt) or Call: obj.nm with
+  // nargs arguments. The two differ only in their messages.
+  //
+  private MethodSig callee(boolean stmt, Ast.Exp obj, String nm, int nargs) throws Exception {
+	String where = stmt ? "(In CallStmt)" : "(In Call)";
+	MethodSig sig;
+	if(obj instanceof Ast.Id){
+		Ast.Id clsnm = (Ast.Id)obj;
+		int slot = local(clsnm);
+		ClassInfo cls = (slot < 0) ? null : classOfLocal(slot);
+		if(cls == null){
+			throw stmt ? new TypeException(where, " Class does not exist")
+				   : new TypeException(where, " Class does not exist: ", clsnm.nm);
+		}
+		if(typed != null){
+			typedId(clsnm, slot);
+		}
+		sig = findMethod(cls, nm);
+		if(sig == null){
+			throw stmt ? new TypeException(where, " Method does not exist")
+				   : new TypeException(where, " Method does not exist: ", nm);
+		}
+	}
+	else if(obj instanceof Ast.This){
+		if(typed != null){
+			typed.type(obj, thisCInfo.type);
+		}
+		sig = findMethod(thisCInfo, nm);
+		if(sig == null){
+			throw new TypeException(where, " Can't find method ", nm);
 		}
 	}
 	else{
-		Ast.MethodDecl var = thisCInfo.findMethodDecl(n.nm);
-		if(var == null){
-			throw new TypeException("(In CallStmt) Can't find method " + n.nm);
+		throw stmt ? new TypeException(where, " Must be Object type1 ", obj)
+			   : new TypeException(where, " Not an object type: ", obj);
+	}
+	if(sig.params.length != nargs){
+		throw new TypeException(where, " Param and arg counts don't match: ", sig.params.length, " vs. ", nargs);
+	}
+	return sig;
+  }
+
+  // (step 3 for argument i of a call to sig, of type type2; where is
+  // the message head of the calling node)
+  private void arg(String where, MethodSig sig, int i, Ast.Type type2) throws Exception {
+	Ast.Type type1 = sig.params[i];
+	if(stats != null){	// the assignable() step this stands for
+		stats.assignables++;
+	}
+	if(type1 == type2 && sig.exact[i]){ // types are canonical: the common case
+		if(deps != null && type1 instanceof Ast.ObjType)
+			deps.add(((Ast.ObjType)type1).nm);
+		return;
+	}
+	if(!sameSort(type1, type2)){
+		throw new TypeException(where, " Param and arg types don't match: ", type1, " vs. ", type2);
+	}
+	if(type1 instanceof Ast.ObjType){ // make sure object is correct class type
+		ClassInfo cls1 = sig.classes[i], cls2 = types.classOf(type2);
+		if(deps != null){
+			deps.add(((Ast.ObjType)type1).nm);
+			deps.add(((Ast.ObjType)type2).nm);
 		}
-		if(var.params.length != n.args.length){
-			throw new TypeException("(In CallStmt) Param and arg counts don't match: " + var.params.length + " vs. " + n.args.length);
+		if(cls1 == null || cls2 == null){
+			throw new TypeException(where, " Class does not exist.");
 		}
-		for(int i = 0; i < var.params.length; ++i){
-			Ast.Type type1 = var.params[i].t;
-			Ast.Type type2 = check(n.args[i]);
-			if(!(type1.getClass().equals(type2.getClass()))){
-				throw new TypeException("(In CallStmt) Param and arg types don't match: " + type1 + " vs. " + type2);
-			}
-			if(type1 instanceof Ast.ObjType){ // make sure object is correct class type
-				Ast.ObjType obj1 = (Ast.ObjType)type1;
-				Ast.ObjType obj2 = (Ast.ObjType)type2;
-				if(classEnv.containsKey(obj1.nm) && classEnv.containsKey(obj2.nm)){
-					if(!assignable(obj1,obj2)){
-						throw new TypeException("(In CallStmt) Param and arg types don't match: " + type1 + " vs. " + type2);
-					}
-				}
-				else{
-				throw new TypeException("(In CallStmt) Class does not exist.");
-				}
-			}
+		if(stats != null){
+			stats.subtypeTests++;
+		}
+		if(!cls2.isSubclassOf(cls1)){
+			throw new TypeException(where, " Param and arg types don't match: ", type1, " vs. ", type2);
 		}
 	}
   }
@@ -507,76 +2731,10 @@ public class Checker {
   //
   //  Make sure n.cond is boolean.
   //
-  static void check(Ast.If n) throws Exception {
-	boolean rtn = false;
-	boolean nestedIf = false; // true if the if has nested ifs within it
-	Ast.Type type = check(n.cond);
-	if(!(type instanceof Ast.BoolType)){
-		throw new TypeException("(In If) Cond exp type is not boolean: " + type);
-	}
-	if(n.s1 instanceof Ast.Return){
-		returns.add(new Pair<String,Boolean>("if",true));
-	}
-	else if(n.s1 instanceof Ast.If){
-		returns.add(new Pair<String,Boolean>("Oif",false));
-	}
-	else if(n.s1 instanceof Ast.Block){
-		Ast.Block stmt = (Ast.Block)n.s1;
-		for (Ast.Stmt s: stmt.stmts) {
-      		if(s instanceof Ast.Return){
-      			rtn = true;
-			}
-			else if(s instanceof Ast.If){
-      			nestedIf = true;
-			}
-    	}
-		if(rtn){
-			returns.add(new Pair<String,Boolean>("if",true));
-		}
-		else if(nestedIf){
-			returns.add(new Pair<String,Boolean>("Oif",false));
-		}
-		else{
-			returns.add(new Pair<String,Boolean>("if",false));
-		}
-	}
-	else{
-		returns.add(new Pair<String,Boolean>("if",false));
-	}
+  void check(Ast.If n) throws Exception {
+	cond("(In If)", check(n.cond));
 	check(n.s1);
 	if(n.s2 != null){
-		rtn = false; //reset for next test
-		nestedIf = false; // reset for next test
-		if(n.s2 instanceof Ast.Return){
-			returns.add(new Pair<String,Boolean>("else",true));
-		}
-		else if(n.s1 instanceof Ast.If){
-		returns.add(new Pair<String,Boolean>("Oelse",false));
-		}
-		else if(n.s2 instanceof Ast.Block){
-			Ast.Block stmt = (Ast.Block)n.s2;
-			for (Ast.Stmt s: stmt.stmts) {
-      			if(s instanceof Ast.Return){
-      				rtn = true;
-					break;
-				}
-				else if(s instanceof Ast.If){
-      				nestedIf = true;
-				}
-			}
-			if(rtn){
-				returns.add(new Pair<String,Boolean>("if",true));
-			}
-			else if(nestedIf){
-				returns.add(new Pair<String,Boolean>("Oelse",false));
-			}
-			else{
-				returns.add(new Pair<String,Boolean>("if",false));
-			}
-		}
-		else{
-			returns.add(new Pair<String,Boolean>("else",false));
-		}
 		check(n.s2);
 	}
   }
@@ -587,23 +2745,16 @@ public class Checker {
   //
   //  Make sure n.cond is boolean.
   //
-  static void check(Ast.While n) throws Exception {
-	Ast.Type type = check(n.cond);
+  void check(Ast.While n) throws Exception {
+	cond("(In While)", check(n.cond));
+	check(n.s);
+  }
+
+  // (the rule for an If or While cond of the given type)
+  private void cond(String where, Ast.Type type) throws Exception {
 	if(!(type instanceof Ast.BoolType)){
-		throw new TypeException("(In While) Cond exp type is not boolean: " + type);
-	}
-	if(n.s instanceof Ast.Return){
-		returns.add(new Pair<String,Boolean>("while",true));
+		throw new TypeException(where, " Cond exp type is not boolean: ", type);
 	}
-	else if(n.s instanceof Ast.Block){
-		Ast.Block stmt = (Ast.Block)n.s;
-		for (Ast.Stmt st: stmt.stmts) {
-      		if(st instanceof Ast.Return){
-      			returns.add(new Pair<String,Boolean>("while",true));
-			}
-    	}
-	}
-	check(n.s);
   }
   
   // Print ---
@@ -611,17 +2762,22 @@ public class Checker {
   //
   //  Make sure n.arg is integer, boolean, or string.
   //
-  static void check(Ast.Print n) throws Exception {
+  void check(Ast.Print n) throws Exception {
 	if (n.arg == null){
 		return;
 	}
-	if(n.arg.toString().matches("\"(.*)\"")){
+	if(n.arg instanceof Ast.StrLit){
+		check((Ast.StrLit)n.arg);
 		return;
 	}
 	Ast.Exp args = (Ast.Exp)n.arg;	
-	Ast.Type type = check(args);
+	printArg(check(args));
+  }
+
+  // (the rule for an Exp arg of the given type)
+  private void printArg(Ast.Type type) throws Exception {
 	if(!((type instanceof Ast.IntType) || (type instanceof Ast.BoolType))){
-		throw new TypeException("(In Print) Arg type is not int, boolean, or string: " + type);
+		throw new TypeException("(In Print) Arg type is not int, boolean, or string: ", type);
 	}
   }
 
@@ -630,39 +2786,65 @@ public class Checker {
   //
   //  If n.val exists, make sure it matches the expected return type.
   //
-  static void check(Ast.Return n) throws Exception {
+  void check(Ast.Return n) throws Exception {
+	if(hasValue(n)){
+		returnValue(check(n.val));
+	}
+  }
+
+  // (return true if there is a value to check, after making sure a
+  // value is present exactly when the method returns one)
+  private boolean hasValue(Ast.Return n) throws Exception {
 	if((n.val == null && thisMDecl.t != null)){
-		throw new TypeException("(In Return) Missing return value of type " + thisMDecl.t);
+		throw new TypeException("(In Return) Missing return value of type ", thisMDecl.t);
 	}
 	else if((n.val != null && thisMDecl.t == null)){
 		throw new TypeException("(In Return) Unexpected return value");
 	}
-	if(n.val == null && thisMDecl.t == null){
-		return;
-	}
-	Ast.Type rtn = check(n.val);
-	if(!rtn.getClass().equals(thisMDecl.t.getClass())){
-		throw new TypeException("(In Return) Return type mismatch: " + thisMDecl.t + " <- " + rtn);
+	return n.val != null;
+  }
+
+  // (the rule for a value of type rtn)
+  private void returnValue(Ast.Type rtn) throws Exception {
+	if(!sameSort(rtn, types.canonical(thisMDecl.t))){
+		throw new TypeException("(In Return) Return type mismatch: ", thisMDecl.t, " <- ", rtn);
 	}
   }
 
   // EXPRESSIONS
 
   // Dispatch a generic check call to a specific check routine
+  // - past deep levels of nesting, the expression is checked on the
+  //   explicit stack instead (see run())
+  // - Id, IntLit and BoolLit, most of a program's nodes, nest nothing, so
+  //   they are checked without counting down room
   //
-  static Ast.Type check(Ast.Exp n) throws Exception {
-    if (n instanceof Ast.Binop)    return check((Ast.Binop) n);
-    if (n instanceof Ast.Unop)     return check((Ast.Unop) n);
-    if (n instanceof Ast.Call)     return check((Ast.Call) n);
-    if (n instanceof Ast.NewArray) return check((Ast.NewArray) n);
-    if (n instanceof Ast.ArrayElm) return check((Ast.ArrayElm) n);
-    if (n instanceof Ast.NewObj)   return check((Ast.NewObj) n);
-    if (n instanceof Ast.Field)    return check((Ast.Field) n);
-    if (n instanceof Ast.Id)	   return check((Ast.Id) n);
-    if (n instanceof Ast.This)     return check((Ast.This) n);
-    if (n instanceof Ast.IntLit)   return check((Ast.IntLit) n);
-    if (n instanceof Ast.BoolLit)  return check((Ast.BoolLit) n);
-    throw new TypeException("(In Exp) Exp node not recognized: " + n);
+  Ast.Type check(Ast.Exp n) throws Exception {
+    if (stats != null)
+      stats.nodes[kind(n)]++;
+    Ast.Type t;
+    if (n instanceof Ast.Id)           t = check((Ast.Id) n);
+    else if (n instanceof Ast.IntLit)  t = check((Ast.IntLit) n);
+    else if (n instanceof Ast.BoolLit) t = check((Ast.BoolLit) n);
+    else if (room == 0)
+      return run(n);
+    else {
+      room--;
+      if (n instanceof Ast.Binop)         t = check((Ast.Binop) n);
+      else if (n instanceof Ast.Call)     t = check((Ast.Call) n);
+      else if (n instanceof Ast.Field)    t = check((Ast.Field) n);
+      else if (n instanceof Ast.This)     t = check((Ast.This) n);
+      else if (n instanceof Ast.ArrayElm) t = check((Ast.ArrayElm) n);
+      else if (n instanceof Ast.NewObj)   t = check((Ast.NewObj) n);
+      else if (n instanceof Ast.Unop)     t = check((Ast.Unop) n);
+      else if (n instanceof Ast.NewArray) t = check((Ast.NewArray) n);
+      else
+	throw new TypeException("(In Exp) Exp node not recognized: ", n);
+      room++;
+    }
+    if (typed != null)
+      typed.type(n, t);
+    return t;
   }
 
   // Binop ---
@@ -671,9 +2853,14 @@ public class Checker {
   //
   //  Make sure n.e1's and n.e2's types are legal with respect to n.op.
   //
-  static Ast.Type check(Ast.Binop n) throws Exception {
+  Ast.Type check(Ast.Binop n) throws Exception {
 	Ast.Type e1 = check(n.e1);
 	Ast.Type e2 = check(n.e2);
+	return binop(n, e1, e2);
+  }
+
+  // (the rule, given the operand types)
+  private Ast.Type binop(Ast.Binop n, Ast.Type e1, Ast.Type e2) throws Exception {
 	if (comparable(e1,e2)){
 		switch(n.op){
 			case ADD:
@@ -681,18 +2868,18 @@ public class Checker {
 			case MUL:
 			case DIV:
 				if(e1 instanceof Ast.IntType)
-					return new Ast.IntType();
-				throw new TypeException("(In Binop) Bad operand types for binary operator: " + n.op);
+					return Ast.IntType;
+				throw new TypeException("(In Binop) Bad operand types for binary operator: ", n.op);
 			case AND:
 			case OR:
 				if(e1 instanceof Ast.IntType)
-					throw new TypeException("(In Binop) Bad operand types for binary operator: " + n.op);
+					throw new TypeException("(In Binop) Bad operand types for binary operator: ", n.op);
 			default:
-				return new Ast.BoolType();
+				return Ast.BoolType;
 		}
 	}
 	else {
-		throw new TypeException("(In Binop) Operand types don't match: " + e1 + " " + n.op + " " + e2);
+		throw new TypeException("(In Binop) Operand types don't match: ", e1, " ", n.op, " ", e2);
 	}
   }
    
@@ -702,40 +2889,50 @@ public class Checker {
   //
   //  Make sure n.e's type is legal with respect to n.op.
   //
-  static Ast.Type check(Ast.Unop n) throws Exception {
-	if(!(n.e instanceof Ast.IntLit || n.e instanceof Ast.BoolLit)){
-		Ast.Type type = check(n.e);
+  Ast.Type check(Ast.Unop n) throws Exception {
+	return unop(n, isLit(n.e) ? null : check(n.e));
+  }
+
+  // A literal operand is not checked (nor counted as visited)
+  //
+  private static boolean isLit(Ast.Exp e) {
+	return e instanceof Ast.IntLit || e instanceof Ast.BoolLit;
+  }
+
+  // (the rule, given n.e's type, or null if n.e is a literal)
+  private Ast.Type unop(Ast.Unop n, Ast.Type type) throws Exception {
+	if(!isLit(n.e)){
 		if(type instanceof Ast.IntType){
 			if(n.op.equals(Ast.UOP.NEG)){
-				return new Ast.IntType ();
+				return Ast.IntType;
 			}
 			else{
-				throw new TypeException("(In Unop) Bad operand type: " + n.op + " " + type);
+				throw new TypeException("(In Unop) Bad operand type: ", n.op, " ", type);
 			}
 		}
 		else if(type instanceof Ast.BoolType){
 			if(n.op.equals(Ast.UOP.NOT)){
-				return new Ast.BoolType();
+				return Ast.BoolType;
 			}
 			else{
-				throw new TypeException("(In Unop) Bad operand type: " + n.op + " BoolType" );
+				throw new TypeException("(In Unop) Bad operand type: ", n.op, " BoolType");
 			}
 		}
 	}
 	else if(n.e instanceof Ast.IntLit){
 		if(n.op.equals(Ast.UOP.NEG)){
-			return new Ast.IntType ();
+			return Ast.IntType;
 		}
 		else{
-			throw new TypeException("(In Unop) Bad operand type: " + n.op + " IntType");
+			throw new TypeException("(In Unop) Bad operand type: ", n.op, " IntType");
 		}
 	}
 	else if(n.e instanceof Ast.BoolLit){
 		if(n.op.equals(Ast.UOP.NOT)){
-			return new Ast.BoolType();
+			return Ast.BoolType;
 		}
 		else{
-			throw new TypeException("(In Unop) Bad operand type: " + n.op + " BoolType");
+			throw new TypeException("(In Unop) Bad operand type: ", n.op, " BoolType");
 		}
 	}
 	throw new TypeException("(In Unop) Type is not integer or boolean"); // should never reach this
@@ -752,73 +2949,21 @@ public class Checker {
   //     the formal parameters.
   //  In addition, this routine needs to return the method's return type.
   //  
-  static Ast.Type check(Ast.Call n) throws Exception {
-	if(!((n.obj instanceof Ast.Id) || (n.obj instanceof Ast.This))){
-		throw new TypeException("(In Call) Not an object type: " + n.obj);
+  Ast.Type check(Ast.Call n) throws Exception {
+	MethodSig sig = callee(n);
+	for(int i = 0; i < n.args.length; ++i){
+		arg("(In Call)", sig, i, check(n.args[i]));
 	}
-	if(n.obj instanceof Ast.Id){
-		Ast.Id clsnm = (Ast.Id)n.obj;
-		if(!(classObjects.containsKey(clsnm.nm))){
-			throw new TypeException("(In Call) Class does not exist: " + clsnm.nm);
-		}
-		String cls = classObjects.get(clsnm.nm);
-		Ast.MethodDecl mthd = classEnv.get(cls).findMethodDecl(n.nm);
-		if(mthd == null){
-			throw new TypeException("(In Call) Method does not exist: " + n.nm);
-		}
-		if(mthd.params.length != n.args.length){
-			throw new TypeException("(In Call) Param and arg counts don't match: " + mthd.params.length + " vs. " + n.args.length);
-		}
-		for(int i = 0; i < mthd.params.length; ++i){
-			Ast.Type type1 = mthd.params[i].t;
-			Ast.Type type2 = check(n.args[i]);
-			if(!(type1.getClass().equals(type2.getClass()))){
-				throw new TypeException("(In Call) Param and arg types don't match: " + type1 + " vs. " + type2);
-			}
-			if(type1 instanceof Ast.ObjType){ // make sure object is correct class type
-				Ast.ObjType obj1 = (Ast.ObjType)type1;
-				Ast.ObjType obj2 = (Ast.ObjType)type2;
-				if(classEnv.containsKey(obj1.nm) && classEnv.containsKey(obj2.nm)){
-					if(!assignable(obj1,obj2)){
-						throw new TypeException("(In Call) Param and arg types don't match: " + type1 + " vs. " + type2);
-					}
-				}
-				else{
-				throw new TypeException("(In Call) Class does not exist.");
-				}
-			}
-		}
-		return mthd.t;
-	}
-	else{
-		Ast.MethodDecl var = thisCInfo.findMethodDecl(n.nm);
-		if(var == null){
-			throw new TypeException("(In Call) Can't find method " + n.nm);
-		}
-		if(var.params.length != n.args.length){
-			throw new TypeException("(In Call) Param and arg counts don't match: " + var.params.length + " vs. " + n.args.length);
-		}
-		for(int i = 0; i < var.params.length; ++i){
-			Ast.Type type1 = var.params[i].t;
-			Ast.Type type2 = check(n.args[i]);
-			if(!(type1.getClass().equals(type2.getClass()))){
-				throw new TypeException("(In Call) Param and arg types don't match: " + type1 + " vs. " + type2);
-			}
-			if(type1 instanceof Ast.ObjType){ // make sure object is correct class type
-				Ast.ObjType obj1 = (Ast.ObjType)type1;
-				Ast.ObjType obj2 = (Ast.ObjType)type2;
-				if(classEnv.containsKey(obj1.nm) && classEnv.containsKey(obj2.nm)){
-					if(!assignable(obj1,obj2)){
-						throw new TypeException("(In Call) Param and arg types don't match: " + type1 + " vs. " + type2);
-					}
-				}
-				else{
-				throw new TypeException("(In Call) Class does not exist.");
-				}
-			}
-		}
-		return var.t;
+	return sig.ret;
+  }
+
+  // (steps 1 and 2, and the arg count: return the method called)
+  private MethodSig callee(Ast.Call n) throws Exception {
+	MethodSig sig = callee(false, n.obj, n.nm, n.args.length);
+	if(typed != null){
+		typed.member(n, sig.decl, sig.owner);
 	}
+	return sig;
   }
 
   // NewArray ---
@@ -830,10 +2975,10 @@ public class Checker {
   //  (Note: While the AST representation allows these cases to happen, our 
   //  miniJava parser does not, so these checks are not very meaningful.)
   //
-  static Ast.Type check(Ast.NewArray n) throws Exception {
+  Ast.Type check(Ast.NewArray n) throws Exception {
 	if(n.et instanceof Ast.IntType || n.et instanceof Ast.BoolType){
 		if(n.len >= 0){
-			return new Ast.ArrayType(n.et);
+			return types.arrayOf(types.canonical(n.et));
 		}
 		else{
 			throw new TypeException("(In NewArray) Index cannot be negative");
@@ -849,50 +2994,36 @@ public class Checker {
   //
   //  Verify that n.ar is array and n.idx is integer.
   //
-  static Ast.Type check(Ast.ArrayElm n) throws Exception {
+  Ast.Type check(Ast.ArrayElm n) throws Exception {
+	array(n);
+	return (n.idx instanceof Ast.IntLit) ? Ast.IntType : index(check(n.idx));
+  }
+
+  // (make sure n.ar is a declared array)
+  private void array(Ast.ArrayElm n) throws Exception {
 	if(!(n.ar instanceof Ast.Id)){
 		throw new TypeException("(In ArrayElm) Must be Id exp");
 	}
 	Ast.Id objnm = (Ast.Id)n.ar;
-	if(!(typeEnv.containsKey(objnm.nm))){
-		Ast.VarDecl var = thisCInfo.findFieldDecl(objnm.nm);
-		if(var == null){
-			throw new TypeException("(In ArrayElm) Array does not exist " + objnm.nm + " " + n.ar + " " + n.idx);
-		}
-		else{
-			if(!(var.t instanceof Ast.ArrayType)){
-				throw new TypeException("(In ArrayElm) Array does not exist");
-			}
-			if(!(n.idx instanceof Ast.IntLit)){
-				Ast.Type index = check(n.idx);
-				if(index instanceof Ast.IntType){
-					return index;
-				}
-				else {
-					throw new TypeException("(In ArrayElm) Index is not integer: " + check(n.idx));
-				}
-			}
-			else{
-				return new Ast.IntType();
-			}
-		}
+	int slot = local(objnm);
+	if(slot < 0){
+		throw new TypeException("(In ArrayElm) Array does not exist ", objnm.nm, " ", n.ar, " ", n.idx);
+	}
+	if(!(slotType[slot] instanceof Ast.ArrayType)) {	
+		throw new TypeException("(In ArrayElm) Object is not array: ", slotType[slot]);
+	}
+	if(typed != null){
+		typedId(objnm, slot);
+	}
+  }
+
+  // (the rule for a non-literal index of the given type)
+  private Ast.Type index(Ast.Type index) throws Exception {
+	if(index instanceof Ast.IntType){
+		return index;
 	}
 	else {
-		if(!(typeEnv.get(objnm.nm) instanceof Ast.ArrayType)) {	
-			throw new TypeException("(In ArrayElm) Object is not array: " + typeEnv.get(objnm.nm));
-		}
-		if(!(n.idx instanceof Ast.IntLit)){
-			Ast.Type index = check(n.idx);
-			if(index instanceof Ast.IntType){
-				return index;
-			}
-			else {
-				throw new TypeException("(In ArrayElm) Index is not integer: " + check(n.idx));
-			}
-		}
-		else{
-			return new Ast.IntType();
-		}
+		throw new TypeException("(In ArrayElm) Index is not integer: ", index);
 	}
   }
 
@@ -901,12 +3032,13 @@ public class Checker {
   //
   //  Verify that the corresponding class exists.
   //
-  static Ast.Type check(Ast.NewObj n) throws Exception {
-	if(classEnv.containsKey(n.nm)){
-		return new Ast.ObjType(n.nm);
+  Ast.Type check(Ast.NewObj n) throws Exception {
+	ClassInfo cinfo = lookupClass(n.nm);
+	if(cinfo != null){
+		return cinfo.type;
 	}
 	else{
-		throw new TypeException("(In NewObj) Can't find class " + n.nm);
+		throw new TypeException("(In NewObj) Can't find class ", n.nm);
 	}
   }
   
@@ -917,69 +3049,89 @@ public class Checker {
   //  1. Verify that n.obj is ObjType, and its corresponding class exists.
   //  2. Verify that n.nm is a valid field in the object.
   //
-  static Ast.Type check(Ast.Field n) throws Exception {
+  Ast.Type check(Ast.Field n) throws Exception {
+	return field(n, (n.obj instanceof Ast.Field) ? check(n.obj) : null);
+  }
+
+  // (the rule; next is n.obj's type when n.obj is itself a Field)
+  private Ast.Type field(Ast.Field n, Ast.Type next) throws Exception {
 	if(!((n.obj instanceof Ast.Id) || (n.obj instanceof Ast.This) || (n.obj instanceof Ast.Field))){
-		throw new TypeException("(In Field) Object is not ObjectType: " + n.obj);
+		throw new TypeException("(In Field) Object is not ObjectType: ", n.obj);
 	}
 	if(n.obj instanceof Ast.Id){
 		Ast.Id clsnm = (Ast.Id)n.obj;
-		if(!typeEnv.containsKey(clsnm.nm)){
-			throw new TypeException("(In Field) Object has not been declared: " + clsnm.nm);
+		int slot = local(clsnm);
+		if(slot < 0){
+			throw new TypeException("(In Field) Object has not been declared: ", clsnm.nm);
 		}
-		Ast.Type type = typeEnv.get(clsnm.nm);
+		Ast.Type type = slotType[slot];
 		if(!(type instanceof Ast.ObjType)){
-			throw new TypeException("(In Field) Object is not of ObjType: " + type);
+			throw new TypeException("(In Field) Object is not of ObjType: ", type);
 		}
-		if(!(classObjects.containsKey(clsnm.nm))){
-			throw new TypeException("(In Field) Object class does not exisit: " + clsnm.nm);
+		ClassInfo cls = classOfLocal(slot);
+		if(cls == null){
+			throw new TypeException("(In Field) Object class does not exisit: ", clsnm.nm);
 		}
-		if(classEnv.get(classObjects.get(clsnm.nm)).findFieldDecl(n.nm) != null){
-			return classEnv.get(classObjects.get(clsnm.nm)).findFieldDecl(n.nm).t;
+		if(typed != null){
+			typedId(clsnm, slot);
 		}
-		throw new TypeException("(In Field) Can't find field " + n.nm);
+		Ast.VarDecl var = findField(cls, n.nm);
+		if(var != null){
+			return fieldType(n, cls, var);
+		}
+		throw new TypeException("(In Field) Can't find field ", n.nm);
 	}
 	else if(n.obj instanceof Ast.Field){
-		Ast.Type next = check(n.obj);
 		if(!(next instanceof Ast.ObjType)){
-			throw new TypeException("(In Field) Object is not of ObjType: " + next);
+			throw new TypeException("(In Field) Object is not of ObjType: ", next);
 		}
 		Ast.ObjType temp = (Ast.ObjType)next;
-		if(!(classEnv.containsKey(temp.nm))){
-			throw new TypeException("(In Field) Object class does not exisit: " + temp.nm);
+		if(lookupClass(temp.nm) == null){
+			throw new TypeException("(In Field) Object class does not exisit: ", temp.nm);
 		}
-		if(classEnv.get(temp.nm).findFieldDecl(n.nm) != null){
-			return classEnv.get(temp.nm).findFieldDecl(n.nm).t;
+		ClassInfo cls = lookupClass(temp.nm);
+		Ast.VarDecl var = findField(cls, n.nm);
+		if(var != null){
+			return fieldType(n, cls, var);
 		}
-		throw new TypeException("(In Field) Can't find field " + n.nm);
+		throw new TypeException("(In Field) Can't find field ", n.nm);
 	}
 	else{
-		Ast.VarDecl var = thisCInfo.findFieldDecl(n.nm);
+		Ast.VarDecl var = findField(thisCInfo, n.nm);
 		if(var == null){
 			throw new TypeException("(In Field) field not in class");
 		}
-		return var.t;
+		if(typed != null){
+			typed.type(n.obj, thisCInfo.type);
+		}
+		return fieldType(n, thisCInfo, var);
+	}
+  }
+
+  // (the type of field var of class cls, which n refers to)
+  private Ast.Type fieldType(Ast.Field n, ClassInfo cls, Ast.VarDecl var) {
+	if(typed != null){
+		typed.member(n, var, ownerOf(cls, var));
 	}
+	return types.canonical(var.t);
   }
   
   // Id ---
   //  String nm;
   //
-  //  1. Check if n.nm is in typeEnv. If so, the Id is a param or a local var.
-  //     Obtain and return its type.
-  //  2. Otherwise, the Id is a field variable. Find and return its type (through
-  //     the current ClassInfo).
+  //  Look n.nm up in the scope stack: the Id is a param or a local var, or
+  //  else a field of the current class. If it is a local var, make sure it
+  //  is not read before being assigned. Return its type.
   //
-  static Ast.Type check(Ast.Id n) throws Exception {
-	if(typeEnv.containsKey(n.nm)){
-		return typeEnv.get(n.nm);
-	}
-	else{
-		Ast.VarDecl temp = thisCInfo.findFieldDecl(n.nm);
-		if(temp == null){
-			throw new TypeException("(In Id) Can't find variable " + n.nm);
+  Ast.Type check(Ast.Id n) throws Exception {
+	int slot = local(n);
+	if(slot >= 0){
+		if(typed != null){
+			typedId(n, slot);
 		}
-		return temp.t;
+		return slotType[slot];
 	}
+	throw new TypeException("(In Id) Can't find variable ", n.nm);
   }
 
   // This ---
@@ -987,23 +3139,292 @@ public class Checker {
   //  Find and return an ObjType that corresponds to the current class
   //  (through the current ClassInfo).
   //
-  static Ast.Type check(Ast.This n) {
-	String name = thisCInfo.className();
-	return typeEnv.get(name);
+  Ast.Type check(Ast.This n) {
+	return thisCInfo.type;
+  }
+
+  // (record Id n, bound to slot: its type, and its field if slot is in a
+  // class scope; also for Ids not checked through check(Ast.Id), such as
+  // the object of a Call)
+  private void typedId(Ast.Id n, int slot) {
+	typed.type(n, slotType[slot]);
+	if(depth <= 2 || slot < scopeBase[2]){
+		Ast.VarDecl var = thisCInfo.findFieldDecl(n.nm);
+		typed.member(n, var, ownerOf(thisCInfo, var));
+	}
+  }
+
+  // (the name of the class declaring var, cls or one of its ancestors)
+  private static String ownerOf(ClassInfo cls, Ast.VarDecl var) {
+	for(; cls != null; cls = cls.parent){
+		for(Ast.VarDecl v: cls.cdecl.flds){
+			if(v == var){
+				return cls.className();
+			}
+		}
+	}
+	return null;
   }
 
   // Literals
   //
-  public static Ast.Type check(Ast.IntLit n) { 
+  public Ast.Type check(Ast.IntLit n) { 
     return Ast.IntType; 
   }
 
-  public static Ast.Type check(Ast.BoolLit n) { 
+  public Ast.Type check(Ast.BoolLit n) { 
     return Ast.BoolType; 
   }
 
-  public static void check(Ast.StrLit n) {
+  public void check(Ast.StrLit n) {
     // nothing to check or return
   }
 
+  //------------------------------------------------------------------------------
+  // Explicit-Stack Checking
+  //------------------------
+  // The check routines above recurse on the Java stack, a frame or two per
+  // level of statement or expression nesting. Past deep levels, the two
+  // dispatch routines hand the rest of the subtree to run(), which applies
+  // the same rules in the same order but keeps its frames in arrays: a
+  // machine-generated input (a 50k-term + chain, thousands of nested
+  // blocks) then takes no more native stack than a tree deep levels deep.
+  //
+  // The recursion is counted down in room, by every node that can nest
+  // others. It is not restored when an error is thrown; the recovery
+  // point that catches the error resets it.
+  //
+  // A frame is a node being checked plus its pc, the number of steps it
+  // has taken: each step hands out the next child or applies the node's
+  // rule to the children's types. When an expression frame is done it
+  // leaves its type on vals for its parent. A statement frame is a
+  // recovery point, as in check(Ast.Stmt): an error anywhere in it drops
+  // it and everything above it, and is passed to recover().
+  //
+  static final int DEEP = 256;
+
+  private int deep = DEEP;	// levels checked by recursion
+  private int room = DEEP;	// levels of recursion left
+  private Object[] frameNode = new Object[16];
+  private int[] frameKind = new int[16];
+  private int[] framePc = new int[16];
+  private int[] frameVals = new int[16];	// nvals when the frame was entered
+  private MethodSig[] frameSig = new MethodSig[16];	// a call's callee
+  private int nframes = 0;
+  private Ast.Type[] vals = new Ast.Type[16];
+  private int nvals = 0;
+
+  // Check by recursion up to levels deep (0: check everything on the
+  // explicit stack)
+  //
+  void setDeep(int levels) { deep = room = levels; }
+
+  // Check n, an Ast.Stmt or Ast.Exp, on the explicit stack; return its
+  // type (null for a statement)
+  // - the rules never call back into the dispatch routines, so run() is
+  //   never re-entered
+  // - n itself is not counted in stats; the dispatch routine has counted it
+  //
+  private Ast.Type run(Object n) throws Exception {
+    nframes = nvals = 0;
+    enter(n);
+    while (nframes > 0) {
+      int f = nframes - 1;
+      try {
+	step(f, frameNode[f], framePc[f]++);
+      } catch (TypeException e) {
+	while (f >= 0 && !(frameNode[f] instanceof Ast.Stmt))
+	  f--;
+	if (f < 0)
+	  throw e;			// an Exp: its caller recovers
+	nframes = f;
+	nvals = frameVals[f];
+	recover(e);
+      }
+    }
+    return (nvals > 0) ? vals[nvals - 1] : null;
+  }
+
+  private void enter(Object n) {
+    if (nframes == frameNode.length) {
+      int len = 2 * nframes;
+      frameNode = Arrays.copyOf(frameNode, len);
+      frameKind = Arrays.copyOf(frameKind, len);
+      framePc = Arrays.copyOf(framePc, len);
+      frameVals = Arrays.copyOf(frameVals, len);
+      frameSig = Arrays.copyOf(frameSig, len);
+    }
+    int k = kind(n);
+    if (stats != null && nframes > 0)
+      stats.nodes[k]++;
+    frameNode[nframes] = n;
+    frameKind[nframes] = k;
+    framePc[nframes] = 0;
+    frameVals[nframes] = nvals;
+    nframes++;
+  }
+
+  // Finish the top (expression) frame with type t
+  //
+  private void done(Ast.Type t) {
+    nframes--;
+    if (typed != null)
+      typed.type(frameNode[nframes], t);
+    if (nvals == vals.length)
+      vals = Arrays.copyOf(vals, 2 * nvals);
+    vals[nvals++] = t;
+  }
+
+  // Take step pc of frame f, node o
+  //
+  private void step(int f, Object o, int pc) throws Exception {
+    switch (frameKind[f]) {
+    case BLOCK: {
+      Ast.Stmt[] stmts = ((Ast.Block) o).stmts;
+      if (pc < stmts.length)
+	enter(stmts[pc]);
+      else
+	nframes--;
+      return;
+    }
+    case ASSIGN: {
+      Ast.Assign n = (Ast.Assign) o;
+      if (pc == 0) {
+	enter(n.lhs);
+      } else if (pc == 1) {
+	enter(n.rhs);
+      } else {
+	assign(vals[nvals - 2], vals[nvals - 1]);
+	nvals -= 2;
+	nframes--;
+      }
+      return;
+    }
+    case CALLSTMT: {
+      Ast.CallStmt n = (Ast.CallStmt) o;
+      if (pc == 0)
+	frameSig[f] = callee(n);
+      else
+	arg("(In CallStmt)", frameSig[f], pc - 1, vals[--nvals]);
+      if (pc < n.args.length)
+	enter(n.args[pc]);
+      else
+	nframes--;
+      return;
+    }
+    case IF: {
+      Ast.If n = (Ast.If) o;
+      if (pc == 0) {
+	enter(n.cond);
+      } else if (pc == 1) {
+	cond("(In If)", vals[--nvals]);
+	enter(n.s1);
+      } else if (pc == 2 && n.s2 != null) {
+	enter(n.s2);
+      } else {
+	nframes--;
+      }
+      return;
+    }
+    case WHILE: {
+      Ast.While n = (Ast.While) o;
+      if (pc == 0) {
+	enter(n.cond);
+      } else if (pc == 1) {
+	cond("(In While)", vals[--nvals]);
+	enter(n.s);
+      } else {
+	nframes--;
+      }
+      return;
+    }
+    case PRINT: {
+      Ast.Print n = (Ast.Print) o;
+      if (pc == 0 && n.arg != null && !(n.arg instanceof Ast.StrLit)) {
+	enter((Ast.Exp) n.arg);
+      } else {
+	if (pc == 1)
+	  printArg(vals[--nvals]);
+	nframes--;
+      }
+      return;
+    }
+    case RETURN: {
+      Ast.Return n = (Ast.Return) o;
+      if (pc == 0 && hasValue(n)) {
+	enter(n.val);
+      } else {
+	if (pc == 1)
+	  returnValue(vals[--nvals]);
+	nframes--;
+      }
+      return;
+    }
+    case BINOP: {
+      Ast.Binop n = (Ast.Binop) o;
+      if (pc == 0) {
+	enter(n.e1);
+      } else if (pc == 1) {
+	enter(n.e2);
+      } else {
+	Ast.Type t = binop(n, vals[nvals - 2], vals[nvals - 1]);
+	nvals -= 2;
+	done(t);
+      }
+      return;
+    }
+    case UNOP: {
+      Ast.Unop n = (Ast.Unop) o;
+      if (pc == 0 && !isLit(n.e))
+	enter(n.e);
+      else
+	done(unop(n, (pc == 0) ? null : vals[--nvals]));
+      return;
+    }
+    case CALL: {
+      Ast.Call n = (Ast.Call) o;
+      if (pc == 0)
+	frameSig[f] = callee(n);
+      else
+	arg("(In Call)", frameSig[f], pc - 1, vals[--nvals]);
+      if (pc < n.args.length)
+	enter(n.args[pc]);
+      else
+	done(frameSig[f].ret);
+      return;
+    }
+    case ARRAYELM: {
+      Ast.ArrayElm n = (Ast.ArrayElm) o;
+      if (pc == 0) {
+	array(n);
+	if (n.idx instanceof Ast.IntLit)
+	  done(Ast.IntType);
+	else
+	  enter(n.idx);
+      } else {
+	done(index(vals[--nvals]));
+      }
+      return;
+    }
+    case FIELD: {
+      Ast.Field n = (Ast.Field) o;
+      if (pc == 0 && n.obj instanceof Ast.Field)
+	enter(n.obj);
+      else
+	done(field(n, (pc == 0) ? null : vals[--nvals]));
+      return;
+    }
+    case ID:       done(check((Ast.Id) o));       return;
+    case THIS:     done(check((Ast.This) o));     return;
+    case INTLIT:   done(check((Ast.IntLit) o));   return;
+    case BOOLLIT:  done(check((Ast.BoolLit) o));  return;
+    case NEWARRAY: done(check((Ast.NewArray) o)); return;
+    case NEWOBJ:   done(check((Ast.NewObj) o));   return;
+    default:
+      if (o instanceof Ast.Stmt)
+	throw new TypeException("(In Stmt) Illegal Ast Stmt: ", o);
+      throw new TypeException("(In Exp) Exp node not recognized: ", o);
+    }
+  }
+
 }
@@ -0,0 +1,103 @@
+// Batch mode for the miniJava checker
+//
+// Checks many programs in one JVM, so JVM startup and JIT warm-up are paid
+// once rather than per file. Inputs may be file names, directories (searched
+// recursively for *.java files) and @listfiles (one input per line). Files
+// are parsed and checked on a bounded worker pool; one PASS/FAIL line per
+// file is printed in input order, followed by an aggregate summary.
+//
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+class CheckerBatch {
+
+  // Return true if the input names more than a single program file
+  //
+  static boolean isBatchInput(String input) {
+    return input.startsWith("@") || new File(input).isDirectory();
+  }
+
+  // Expand the command-line inputs into a list of file names
+  // - directories are walked recursively, in sorted order
+  // - "@name" reads further inputs from file name, one per line
+  //
+  static List<String> expand(List<String> inputs) throws IOException {
+    List<String> files = new ArrayList<String>();
+    for (String in: inputs)
+      expand(in, files);
+    return files;
+  }
+
+  private static void expand(String input, List<String> files) throws IOException {
+    if (input.startsWith("@")) {
+      BufferedReader rd = new BufferedReader(new FileReader(input.substring(1)));
+      try {
+	String line;
+	while ((line = rd.readLine()) != null) {
+	  line = line.trim();
+	  if (line.length() > 0)
+	    expand(line, files);
+	}
+      } finally {
+	rd.close();
+      }
+    } else if (new File(input).isDirectory()) {
+      walk(new File(input), files);
+    } else {
+      files.add(input);
+    }
+  }
+
+  private static void walk(File dir, List<String> files) {
+    File[] entries = dir.listFiles();
+    if (entries == null)
+      return;
+    Arrays.sort(entries);
+    for (File f: entries) {
+      if (f.isDirectory())
+	walk(f, files);
+      else if (f.getName().endsWith(".java"))
+	files.add(f.getPath());
+    }
+  }
+
+  // Check every input on a pool of opts.workers threads, and print the
+  // per-file results and the summary to out
+  //
+  static void run(final Checker.Options opts, PrintStream out) throws Exception {
+    List<String> files = expand(opts.inputs);
+    long start = System.nanoTime();
+    ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, opts.workers));
+    List<Future<String>> results = new ArrayList<Future<String>>(files.size());
+    try {
+      for (final String f: files)
+	results.add(workers.submit(new Callable<String>() {
+	  public String call() { return Checker.checkFile(f, opts); }
+	}));
+      int failed = 0;
+      for (int i = 0; i < files.size(); i++) {
+	String report = results.get(i).get();
+	if (report.length() == 0) {
+	  out.println("PASS " + files.get(i));
+	} else {
+	  failed++;
+	  out.println("FAIL " + files.get(i));
+	  for (String line: report.split("\n"))
+	    out.println("  " + line);
+	}
+      }
+      double secs = (System.nanoTime() - start) / 1e9;
+      out.printf("%d files, %d passed, %d failed in %.2f s (%.1f files/sec)%n",
+		 files.size(), files.size() - failed, failed, secs,
+		 secs > 0 ? files.size() / secs : 0.0);
+      if (opts.cache != null)
+	out.println(opts.cache.summary());
+      if (opts.stats != null)
+	out.print(opts.stats);
+    } finally {
+      workers.shutdown();
+    }
+  }
+}
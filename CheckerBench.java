@@ -0,0 +1,801 @@
+// Microbenchmarks for the miniJava checker
+//
+// Times the checker's hot routines on synthetic inputs, so a performance
+// change to Checker can be judged against numbers:
+//
+//   assignable   assignable() between the ends of a deep class chain
+//   comparable   comparable() between the ends of a deep class chain
+//   findMethod   findMethodDecl() on a wide class (and its subclass)
+//   findField    findFieldDecl() on a wide class (and its subclass)
+//   binop        check(Ast.Exp) on a long left-nested + chain
+//   dispatch     dispatching 1024 mixed expressions to their routines
+//   symbols      resolving 4096 Id occurrences to their symbols
+//   calls        check(Ast.Program) on a method made of calls only
+//   topoSort     topoSort() on a large, shuffled class forest
+//   program      check(Ast.Program) on a whole generated program
+//   hierarchy    check(Ast.Program) on a wide hierarchy of many classes
+//                under a few roots
+//   recheck      recheck(Ast.Program) alternating between two versions of a
+//                program that differ in one method body
+//
+// binop and program also take deep, the nesting the checker handles by
+// recursion before switching to its explicit stack: the default
+// (Checker.DEEP) against 0, everything on the explicit stack.
+// dispatch takes kind: 0 for the instanceof chain check(Ast.Exp) used
+// to run, 1 for a switch on Checker.kind(), 2 for the chain, most frequent
+// kinds first, it runs now (see Dispatch below).
+// symbols takes table: 0 resolves each occurrence by name, as the checker
+// does; 1 first builds a table keyed by Id node, as a resolving pass ahead
+// of each check would, then resolves through it; 2 resolves through a
+// table built once (the cost if the nodes were checked again and again).
+// recheck takes reparse: 0 for an edit that keeps every other ClassDecl
+// object, 1 for one where all nodes are new, as after re-parsing the file.
+// hierarchy takes workers, the parallelism of the checker's fork/join
+// pool (0: no pool, the sequential checker); the speedup is the time at 0
+// over the time at N. A checker does not use a pool of one worker, or
+// any pool on one CPU (see Checker(ForkJoinPool)).
+//
+// Each benchmark runs once per combination of its parameters. A run is a
+// number of warm-up iterations followed by measured ones; an iteration
+// repeats the operation for a fixed time. Besides time per operation, the
+// bytes allocated per operation and the allocation rate (the equivalent of
+// JMH's gc.alloc.rate) are measured from the thread's allocation counter.
+//
+// Usage: java CheckerBench [-wi N] [-i N] [-t MS] [-p name=v1,v2,...] [bench ...]
+//        java CheckerBench -check [check ...]
+//
+//   -wi N   warm-up iterations (default 3)
+//   -i N    measured iterations (default 5)
+//   -t MS   length of one iteration in milliseconds (default 500)
+//   -p      override a parameter's values, e.g. -p depth=10,1000
+//   bench   run only the benchmarks whose names contain one of these
+//   -check  run the correctness checks (see checks()) instead: each prints
+//           PASS or FAIL, and the exit status is 1 if any failed
+//
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.lang.management.ManagementFactory;
+import ast.*;
+
+class CheckerBench {
+
+  // A benchmark: setup() builds the input for one parameter combination,
+  // then op() is timed
+  //
+  static abstract class Bench {
+    final String name;
+    final String[] params;		// parameter names
+    final int[][] values;		// default values, per parameter
+
+    Bench(String name, String[] params, int[][] values) {
+      this.name = name;
+      this.params = params;
+      this.values = values;
+    }
+
+    abstract void setup(Map<String, Integer> p) throws Exception;
+
+    // Run the operation once; the result is consumed so the JIT cannot
+    // discard the work
+    //
+    abstract Object op() throws Exception;
+  }
+
+  static volatile int sink;		// consumes op() results
+
+  //------------------------------------------------------------------------------
+  // Inputs
+  //-------
+
+  static final Ast.Type INT = new Ast.IntType();
+  static final Ast.VarDecl[] NO_VARS = new Ast.VarDecl[0];
+  static final Ast.Param[] NO_PARAMS = new Ast.Param[0];
+  static final Ast.MethodDecl[] NO_METHODS = new Ast.MethodDecl[0];
+
+  // Classes C0 <- C1 <- ... <- C(depth-1), each with one field and method
+  //
+  static Ast.ClassDecl[] chain(int depth) {
+    Ast.ClassDecl[] cs = new Ast.ClassDecl[depth];
+    for (int i = 0; i < depth; i++) {
+      Ast.VarDecl[] f = { new Ast.VarDecl(INT, "f" + i, null) };
+      Ast.MethodDecl[] m = { method("m" + i, 1) };
+      cs[i] = new Ast.ClassDecl("C" + i, (i == 0) ? null : "C" + (i - 1), f, m);
+    }
+    return cs;
+  }
+
+  // Class W with width fields and methods, and an empty subclass V
+  //
+  static Ast.ClassDecl[] wide(int width) {
+    Ast.VarDecl[] f = new Ast.VarDecl[width];
+    Ast.MethodDecl[] m = new Ast.MethodDecl[width];
+    for (int i = 0; i < width; i++) {
+      f[i] = new Ast.VarDecl(INT, "f" + i, null);
+      m[i] = method("m" + i, 1);
+    }
+    return new Ast.ClassDecl[] {
+      new Ast.ClassDecl("W", null, f, m),
+      new Ast.ClassDecl("V", "W", NO_VARS, NO_METHODS) };
+  }
+
+  // A random forest of n classes (each class's parent is an earlier class,
+  // or none), listed in shuffled order
+  //
+  static Ast.ClassDecl[] forest(int n, Random rnd) {
+    Ast.ClassDecl[] cs = new Ast.ClassDecl[n];
+    for (int i = 0; i < n; i++) {
+      String p = (i == 0 || rnd.nextInt(8) == 0) ? null : "K" + rnd.nextInt(i);
+      cs[i] = new Ast.ClassDecl("K" + i, p, NO_VARS, NO_METHODS);
+    }
+    Collections.shuffle(Arrays.asList(cs), rnd);
+    return cs;
+  }
+
+  // ((0 + 1) + 2) + ... with len operators
+  //
+  static Ast.Exp sum(int len) {
+    Ast.Exp e = new Ast.IntLit(0);
+    for (int i = 1; i <= len; i++)
+      e = new Ast.Binop(Ast.BOP.ADD, e, new Ast.IntLit(i));
+    return e;
+  }
+
+  // int nm(int p) { int x = 1; <size - 1 statements> return x; }
+  // - the statements alternate assignments, ifs and whiles over the local
+  //   x and the param p
+  //
+  static Ast.MethodDecl method(String nm, int size) {
+    Ast.Exp x = new Ast.Id("x"), p = new Ast.Id("p");
+    Ast.Stmt[] s = new Ast.Stmt[size];
+    for (int i = 0; i < size - 1; i++) {
+      Ast.Stmt a = new Ast.Assign(x, new Ast.Binop(Ast.BOP.ADD, x, new Ast.IntLit(i)));
+      Ast.Exp cond = new Ast.Binop(Ast.BOP.LT, x, p);
+      switch (i % 3) {
+      case 0:  s[i] = a; break;
+      case 1:  s[i] = new Ast.If(cond, a, new Ast.Assign(x, p)); break;
+      default: s[i] = new Ast.While(cond, new Ast.Block(new Ast.Stmt[] { a })); break;
+      }
+    }
+    s[size - 1] = new Ast.Return(x);
+    return new Ast.MethodDecl(INT, nm, new Ast.Param[] { new Ast.Param(INT, "p") },
+			      new Ast.VarDecl[] { new Ast.VarDecl(INT, "x", new Ast.IntLit(1)) }, s);
+  }
+
+  // class K (a subclass of J) with int m(int a, boolean b, J j) and
+  // int run(int p), whose body is n statements alternating
+  // x = this.m(x, b, k); and k.m(p, b, this);
+  //
+  static Ast.Program calls(int n) {
+    Ast.Type J = new Ast.ObjType("J"), K = new Ast.ObjType("K"), BOOL = new Ast.BoolType();
+    Ast.Exp x = new Ast.Id("x"), p = new Ast.Id("p"), b = new Ast.Id("b"), k = new Ast.Id("k");
+    Ast.MethodDecl m = new Ast.MethodDecl(INT, "m",
+      new Ast.Param[] { new Ast.Param(INT, "a"), new Ast.Param(BOOL, "b"), new Ast.Param(J, "j") },
+      NO_VARS, new Ast.Stmt[] { new Ast.Return(new Ast.Id("a")) });
+    Ast.Stmt[] s = new Ast.Stmt[n + 1];
+    for (int i = 0; i < n; i++)
+      s[i] = (i % 2 == 0)
+	? new Ast.Assign(x, new Ast.Call(new Ast.This(), "m", new Ast.Exp[] { x, b, k }))
+	: new Ast.CallStmt(k, "m", new Ast.Exp[] { p, b, new Ast.This() });
+    s[n] = new Ast.Return(x);
+    Ast.MethodDecl run = new Ast.MethodDecl(INT, "run", new Ast.Param[] { new Ast.Param(INT, "p") },
+      new Ast.VarDecl[] { new Ast.VarDecl(INT, "x", new Ast.IntLit(1)),
+			  new Ast.VarDecl(BOOL, "b", new Ast.BoolLit(true)),
+			  new Ast.VarDecl(K, "k", new Ast.NewObj("K")) }, s);
+    return new Ast.Program(new Ast.ClassDecl[] {
+      new Ast.ClassDecl("J", null, NO_VARS, new Ast.MethodDecl[] { m }),
+      new Ast.ClassDecl("K", "J", NO_VARS, new Ast.MethodDecl[] { run }) });
+  }
+
+  // classes classes in a forest, each with methods methods of size size
+  //
+  static Ast.Program program(int classes, int methods, int size, Random rnd) {
+    Ast.ClassDecl[] shape = forest(classes, rnd);
+    Ast.ClassDecl[] cs = new Ast.ClassDecl[classes];
+    for (int i = 0; i < classes; i++) {
+      Ast.MethodDecl[] m = new Ast.MethodDecl[methods];
+      for (int j = 0; j < methods; j++)
+	m[j] = method("m" + j, size);
+      Ast.VarDecl[] f = { new Ast.VarDecl(INT, "f", null) };
+      cs[i] = new Ast.ClassDecl(shape[i].nm, shape[i].pnm, f, m);
+    }
+    return new Ast.Program(cs);
+  }
+
+  // Two versions of a program of classes classes, each with 10 methods of
+  // size 5, that differ in the body of one method: the second shares every
+  // other ClassDecl with the first (as an editor's AST would), or, with
+  // reparse, is built from scratch (as parsing the edited text would)
+  //
+  static Ast.Program[] edited(int classes, boolean reparse) {
+    Ast.Program a = program(classes, 10, 5, new Random(42));
+    Ast.ClassDecl[] cs = reparse ? program(classes, 10, 5, new Random(42)).classes : a.classes.clone();
+    Ast.ClassDecl c = cs[classes / 2];
+    Ast.MethodDecl[] m = c.mthds.clone();
+    m[0] = method("m0", 6);
+    cs[classes / 2] = new Ast.ClassDecl(c.nm, c.pnm, c.flds, m);
+    return new Ast.Program[] { a, new Ast.Program(cs) };
+  }
+
+  // classes classes under roots roots, 16 children to a class (class i's
+  // parent is class (i - roots) / 16), each with a field and two methods
+  //
+  static Ast.Program hierarchy(int classes, int roots) {
+    Ast.ClassDecl[] cs = new Ast.ClassDecl[classes];
+    for (int i = 0; i < classes; i++) {
+      Ast.VarDecl[] f = { new Ast.VarDecl(INT, "f" + i, null) };
+      Ast.MethodDecl[] m = { method("m" + i, 5), method("m", 5) };
+      cs[i] = new Ast.ClassDecl("H" + i, (i < roots) ? null : "H" + (i - roots) / 16, f, m);
+    }
+    return new Ast.Program(cs);
+  }
+
+  // n expressions drawn at random with roughly the frequencies of method
+  // bodies: mostly Ids, literals and Binops, occasionally the rest
+  //
+  static Ast.Exp[] expMix(int n, Random rnd) {
+    Ast.Exp id = new Ast.Id("x"), lit = new Ast.IntLit(1);
+    Ast.Exp[] kinds = {
+      id, id, id, id, id, id, lit, lit, lit, lit,
+      new Ast.Binop(Ast.BOP.ADD, id, lit), new Ast.Binop(Ast.BOP.LT, id, id),
+      new Ast.Binop(Ast.BOP.MUL, lit, id), new Ast.Binop(Ast.BOP.EQ, id, lit),
+      new Ast.Call(new Ast.This(), "m", new Ast.Exp[] { id }), new Ast.Call(id, "n", new Ast.Exp[0]),
+      new Ast.Field(new Ast.This(), "f"), new Ast.This(), new Ast.BoolLit(true),
+      new Ast.ArrayElm(id, lit), new Ast.NewObj("K"), new Ast.Unop(Ast.UOP.NEG, id),
+      new Ast.NewArray(INT, 8) };
+    Ast.Exp[] es = new Ast.Exp[n];
+    for (int i = 0; i < n; i++)
+      es[i] = kinds[rnd.nextInt(kinds.length)];
+    return es;
+  }
+
+  // n Id occurrences, each a new node with its own copy of one of names
+  // (as a parser produces them)
+  //
+  static Ast.Id[] idMix(int n, String[] names, Random rnd) {
+    Ast.Id[] ids = new Ast.Id[n];
+    for (int i = 0; i < n; i++)
+      ids[i] = new Ast.Id(new String(names[rnd.nextInt(names.length)]));
+    return ids;
+  }
+
+  // A symbol table keyed by Id node, as a pass resolving every occurrence
+  // ahead of checking would build: open addressing on identity, at most
+  // half full
+  //
+  static final class IdTable {
+    final Ast.Id[] keys;
+    final int[] syms;
+
+    IdTable(Ast.Id[] ids, Checker.Symbols symbols) {
+      keys = new Ast.Id[Integer.highestOneBit(ids.length) << 2];
+      syms = new int[keys.length];
+      for (Ast.Id id: ids) {
+	int h = slot(id);
+	keys[h] = id;
+	syms[h] = symbols.id(id.nm);
+      }
+    }
+
+    int slot(Ast.Id id) {
+      int h = System.identityHashCode(id) & (keys.length - 1);
+      while (keys[h] != null && keys[h] != id)
+	h = (h + 1) & (keys.length - 1);
+      return h;
+    }
+
+    int sym(Ast.Id id) { return syms[slot(id)]; }
+  }
+
+  //------------------------------------------------------------------------------
+  // Dispatch
+  //---------
+  // The ways the checker has dispatched an expression to its routine: the
+  // instanceof chain check(Ast.Exp) used to run, in its order, a switch on
+  // Checker.kind(), and the chain in kind()'s order it runs now. All call
+  // the same per-class visit() routines, which stand in for the check
+  // routines by reading a field of the cast node, so the difference is the
+  // dispatch alone.
+  //
+
+  static int byInstanceof(Ast.Exp n) {
+    if (n instanceof Ast.Binop)    return visit((Ast.Binop) n);
+    if (n instanceof Ast.Unop)     return visit((Ast.Unop) n);
+    if (n instanceof Ast.Call)     return visit((Ast.Call) n);
+    if (n instanceof Ast.NewArray) return visit((Ast.NewArray) n);
+    if (n instanceof Ast.ArrayElm) return visit((Ast.ArrayElm) n);
+    if (n instanceof Ast.NewObj)   return visit((Ast.NewObj) n);
+    if (n instanceof Ast.Field)    return visit((Ast.Field) n);
+    if (n instanceof Ast.Id)	   return visit((Ast.Id) n);
+    if (n instanceof Ast.This)     return visit((Ast.This) n);
+    if (n instanceof Ast.IntLit)   return visit((Ast.IntLit) n);
+    if (n instanceof Ast.BoolLit)  return visit((Ast.BoolLit) n);
+    throw new IllegalArgumentException("Exp node not recognized: " + n);
+  }
+
+  static int byKind(Ast.Exp n) {
+    switch (Checker.kind(n)) {
+    case Checker.BINOP:    return visit((Ast.Binop) n);
+    case Checker.UNOP:     return visit((Ast.Unop) n);
+    case Checker.CALL:     return visit((Ast.Call) n);
+    case Checker.NEWARRAY: return visit((Ast.NewArray) n);
+    case Checker.ARRAYELM: return visit((Ast.ArrayElm) n);
+    case Checker.NEWOBJ:   return visit((Ast.NewObj) n);
+    case Checker.FIELD:    return visit((Ast.Field) n);
+    case Checker.ID:       return visit((Ast.Id) n);
+    case Checker.THIS:     return visit((Ast.This) n);
+    case Checker.INTLIT:   return visit((Ast.IntLit) n);
+    case Checker.BOOLLIT:  return visit((Ast.BoolLit) n);
+    default:
+      throw new IllegalArgumentException("Exp node not recognized: " + n);
+    }
+  }
+
+  static int byFrequency(Ast.Exp n) {
+    if (n instanceof Ast.Id)       return visit((Ast.Id) n);
+    if (n instanceof Ast.IntLit)   return visit((Ast.IntLit) n);
+    if (n instanceof Ast.Binop)    return visit((Ast.Binop) n);
+    if (n instanceof Ast.BoolLit)  return visit((Ast.BoolLit) n);
+    if (n instanceof Ast.Call)     return visit((Ast.Call) n);
+    if (n instanceof Ast.Field)    return visit((Ast.Field) n);
+    if (n instanceof Ast.This)     return visit((Ast.This) n);
+    if (n instanceof Ast.ArrayElm) return visit((Ast.ArrayElm) n);
+    if (n instanceof Ast.NewObj)   return visit((Ast.NewObj) n);
+    if (n instanceof Ast.Unop)     return visit((Ast.Unop) n);
+    if (n instanceof Ast.NewArray) return visit((Ast.NewArray) n);
+    throw new IllegalArgumentException("Exp node not recognized: " + n);
+  }
+
+  static int visit(Ast.Binop n)    { return n.op.ordinal(); }
+  static int visit(Ast.Unop n)     { return n.op.ordinal() + 12; }
+  static int visit(Ast.Call n)     { return n.args.length + 14; }
+  static int visit(Ast.NewArray n) { return n.len; }
+  static int visit(Ast.ArrayElm n) { return (n.ar == n.idx) ? 1 : 2; }
+  static int visit(Ast.NewObj n)   { return n.nm.length() + 3; }
+  static int visit(Ast.Field n)    { return n.nm.length() + 5; }
+  static int visit(Ast.Id n)       { return n.nm.length() + 7; }
+  static int visit(Ast.This n)     { return 9; }
+  static int visit(Ast.IntLit n)   { return n.i; }
+  static int visit(Ast.BoolLit n)  { return n.b ? 10 : 11; }
+
+  //------------------------------------------------------------------------------
+  // Benchmarks
+  //-----------
+
+  static List<Bench> benches() {
+    List<Bench> bs = new ArrayList<Bench>();
+    bs.add(new Bench("assignable", new String[] { "depth" }, new int[][] { { 10, 100, 1000 } }) {
+      Checker c;
+      Ast.Type top, bottom;
+      void setup(Map<String, Integer> p) throws Exception {
+	c = new Checker();
+	Checker.ClassInfo[] ci = c.buildClassEnv(new Ast.Program(chain(p.get("depth"))));
+	top = ci[0].type;
+	bottom = ci[ci.length - 1].type;
+      }
+      Object op() throws Exception {
+	return c.assignable(top, bottom) & !c.assignable(bottom, top);
+      }
+    });
+    bs.add(new Bench("comparable", new String[] { "depth" }, new int[][] { { 10, 100, 1000 } }) {
+      Checker c;
+      Ast.Type top, bottom;
+      void setup(Map<String, Integer> p) throws Exception {
+	c = new Checker();
+	Checker.ClassInfo[] ci = c.buildClassEnv(new Ast.Program(chain(p.get("depth"))));
+	top = ci[0].type;
+	bottom = ci[ci.length - 1].type;
+      }
+      Object op() throws Exception {
+	return c.comparable(bottom, top);
+      }
+    });
+    bs.add(new Bench("findMethod", new String[] { "width" }, new int[][] { { 10, 100, 1000 } }) {
+      Checker.ClassInfo w, v;
+      String[] names;
+      int i;
+      void setup(Map<String, Integer> p) throws Exception {
+	Checker.ClassInfo[] ci = new Checker().buildClassEnv(new Ast.Program(wide(p.get("width"))));
+	w = ci[0];
+	v = ci[1];
+	names = new String[p.get("width")];
+	for (int k = 0; k < names.length; k++)
+	  names[k] = "m" + k;
+      }
+      Object op() {
+	String nm = names[i++ % names.length];
+	return (w.findMethodDecl(nm) == v.findMethodDecl(nm));
+      }
+    });
+    bs.add(new Bench("findField", new String[] { "width" }, new int[][] { { 10, 100, 1000 } }) {
+      Checker.ClassInfo w, v;
+      String[] names;
+      int i;
+      void setup(Map<String, Integer> p) throws Exception {
+	Checker.ClassInfo[] ci = new Checker().buildClassEnv(new Ast.Program(wide(p.get("width"))));
+	w = ci[0];
+	v = ci[1];
+	names = new String[p.get("width")];
+	for (int k = 0; k < names.length; k++)
+	  names[k] = "f" + k;
+      }
+      Object op() {
+	String nm = names[i++ % names.length];
+	return (w.findFieldDecl(nm) == v.findFieldDecl(nm));
+      }
+    });
+    bs.add(new Bench("binop", new String[] { "length", "deep" },
+		     new int[][] { { 10, 100, 1000 }, { Checker.DEEP, 0 } }) {
+      Checker c;
+      Ast.Exp e;
+      void setup(Map<String, Integer> p) throws Exception {
+	c = new Checker();
+	c.setDeep(p.get("deep"));
+	e = sum(p.get("length"));
+      }
+      Object op() throws Exception {
+	return c.check(e);
+      }
+    });
+    bs.add(new Bench("dispatch", new String[] { "kind" }, new int[][] { { 0, 1, 2 } }) {
+      Ast.Exp[] es;
+      int kind;
+      void setup(Map<String, Integer> p) {
+	es = expMix(1024, new Random(42));
+	kind = p.get("kind");
+      }
+      Object op() {
+	int h = 0;
+	if (kind == 2) {
+	  for (Ast.Exp e: es)
+	    h += byFrequency(e);
+	} else if (kind == 1) {
+	  for (Ast.Exp e: es)
+	    h += byKind(e);
+	} else {
+	  for (Ast.Exp e: es)
+	    h += byInstanceof(e);
+	}
+	return h;
+      }
+    });
+    bs.add(new Bench("symbols", new String[] { "table" }, new int[][] { { 0, 1, 2 } }) {
+      Checker.Symbols symbols;
+      Ast.Id[] ids;
+      IdTable table;
+      int mode;
+      void setup(Map<String, Integer> p) {
+	String[] names = { "x", "p", "o", "ar", "count", "result", "i", "next" };
+	symbols = new Checker.Symbols();
+	for (String nm: names)
+	  symbols.intern(nm);
+	ids = idMix(4096, names, new Random(42));
+	mode = p.get("table");
+	table = new IdTable(ids, symbols);
+      }
+      Object op() {
+	int h = 0;
+	if (mode == 0) {
+	  for (Ast.Id id: ids)
+	    h += symbols.id(id.nm);
+	} else {
+	  IdTable t = (mode == 1) ? new IdTable(ids, symbols) : table;
+	  for (Ast.Id id: ids)
+	    h += t.sym(id);
+	}
+	return h;
+      }
+    });
+    bs.add(new Bench("calls", new String[] { "calls" }, new int[][] { { 10, 100, 1000 } }) {
+      Checker c;
+      Ast.Program prog;
+      void setup(Map<String, Integer> p) throws Exception {
+	c = new Checker();
+	prog = calls(p.get("calls"));
+	if (!c.check(prog).ok())
+	  throw new IllegalStateException("generated program does not check: " + c.check(prog));
+      }
+      Object op() throws Exception {
+	return c.check(prog);
+      }
+    });
+    bs.add(new Bench("topoSort", new String[] { "classes" }, new int[][] { { 100, 1000, 10000 } }) {
+      Ast.ClassDecl[] cs;
+      void setup(Map<String, Integer> p) {
+	cs = forest(p.get("classes"), new Random(42));
+      }
+      Object op() throws Exception {
+	return Checker.topoSort(cs);
+      }
+    });
+    bs.add(new Bench("program", new String[] { "classes", "methods", "size", "deep" },
+		     new int[][] { { 10, 100 }, { 10 }, { 10, 100 }, { Checker.DEEP, 0 } }) {
+      Checker c;
+      Ast.Program prog;
+      void setup(Map<String, Integer> p) throws Exception {
+	c = new Checker();
+	c.setDeep(p.get("deep"));
+	prog = program(p.get("classes"), p.get("methods"), p.get("size"), new Random(42));
+	if (!c.check(prog).ok())
+	  throw new IllegalStateException("generated program does not check: " + c.check(prog));
+      }
+      Object op() throws Exception {
+	return c.check(prog);
+      }
+    });
+    bs.add(new Bench("recheck", new String[] { "classes", "reparse" },
+		     new int[][] { { 100, 1000 }, { 0, 1 } }) {
+      Checker c;
+      Ast.Program[] progs;
+      int i;
+      void setup(Map<String, Integer> p) throws Exception {
+	c = new Checker();
+	progs = edited(p.get("classes"), p.get("reparse") != 0);
+	for (Ast.Program prog: progs)
+	  if (!c.recheck(prog).ok())
+	    throw new IllegalStateException("generated program does not check: " + c.recheck(prog));
+      }
+      Object op() throws Exception {
+	return c.recheck(progs[i++ & 1]);
+      }
+    });
+    bs.add(new Bench("hierarchy", new String[] { "classes", "workers" },
+		     new int[][] { { 1000, 10000 }, { 0, 1, 4 } }) {
+      ForkJoinPool pool;
+      Checker c;
+      Ast.Program prog;
+      void setup(Map<String, Integer> p) throws Exception {
+	if (pool != null)
+	  pool.shutdown();
+	int workers = p.get("workers");
+	pool = (workers == 0) ? null : new ForkJoinPool(workers);
+	c = (pool == null) ? new Checker() : new Checker(pool);
+	prog = hierarchy(p.get("classes"), 4);
+	if (!c.check(prog).ok())
+	  throw new IllegalStateException("generated program does not check: " + c.check(prog));
+      }
+      Object op() throws Exception {
+	return c.check(prog);
+      }
+    });
+    return bs;
+  }
+
+  //------------------------------------------------------------------------------
+  // Checks
+  //-------
+  // Correctness checks with expected outcomes, on inputs too large for
+  // the sample programs: run() returns null if the check passes, else
+  // what went wrong.
+  //
+  static abstract class Check {
+    final String name;
+
+    Check(String name) { this.name = name; }
+
+    abstract String run() throws Exception;
+  }
+
+  // Return null if out is a topoSort order of in: each class exactly once,
+  // every parent before its children
+  //
+  static String sortedOrder(Ast.ClassDecl[] in, Ast.ClassDecl[] out) {
+    if (out.length != in.length)
+      return out.length + " classes out of " + in.length;
+    HashMap<String, Integer> pos = new HashMap<String, Integer>(out.length * 2);
+    for (int i = 0; i < out.length; i++)
+      if (pos.put(out[i].nm, i) != null)
+	return "class " + out[i].nm + " twice";
+    for (int i = 0; i < out.length; i++)
+      if (out[i].pnm != null && !(pos.get(out[i].pnm) < i))
+	return "class " + out[i].nm + " before its parent " + out[i].pnm;
+    return null;
+  }
+
+  // Return null if topoSort(cs) reports an error containing msg
+  //
+  static String sortFails(Ast.ClassDecl[] cs, String msg) throws Exception {
+    try {
+      Checker.topoSort(cs);
+    } catch (Checker.TypeException e) {
+      return e.getMessage().contains(msg) ? null : "reported \"" + e.getMessage() + "\"";
+    }
+    return "no error reported";
+  }
+
+  // Best of five topoSort times of cs, in ns
+  //
+  static long sortTime(Ast.ClassDecl[] cs) throws Exception {
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < 5; i++) {
+      long t0 = System.nanoTime();
+      Checker.topoSort(cs);
+      best = Math.min(best, System.nanoTime() - t0);
+    }
+    return best;
+  }
+
+  static Ast.ClassDecl[] plus(Ast.ClassDecl[] cs, Ast.ClassDecl c) {
+    Ast.ClassDecl[] r = Arrays.copyOf(cs, cs.length + 1);
+    r[cs.length] = c;
+    return r;
+  }
+
+  static List<Check> checks() {
+    List<Check> cs = new ArrayList<Check>();
+    cs.add(new Check("topoSort chain 100000") {	// listed children first
+      String run() throws Exception {
+	Ast.ClassDecl[] in = chain(100000);
+	Collections.reverse(Arrays.asList(in));
+	return sortedOrder(in, Checker.topoSort(in));
+      }
+    });
+    cs.add(new Check("topoSort forest 100000") {
+      String run() throws Exception {
+	Ast.ClassDecl[] in = forest(100000, new Random(42));
+	return sortedOrder(in, Checker.topoSort(in));
+      }
+    });
+    cs.add(new Check("topoSort cycle 100000") {	// C0 extends C99999
+      String run() throws Exception {
+	Ast.ClassDecl[] in = chain(100000);
+	in[0] = new Ast.ClassDecl("C0", "C99999", in[0].flds, in[0].mthds);
+	return sortFails(in, "Cyclic inheritance");
+      }
+    });
+    cs.add(new Check("topoSort unknown parent 100000") {
+      String run() throws Exception {
+	Ast.ClassDecl[] in = plus(chain(100000), new Ast.ClassDecl("X", "Missing", NO_VARS, NO_METHODS));
+	return sortFails(in, "Can't find parent class Missing of X");
+      }
+    });
+    cs.add(new Check("topoSort duplicate class 100000") {
+      String run() throws Exception {
+	Ast.ClassDecl[] in = plus(chain(100000), new Ast.ClassDecl("C500", null, NO_VARS, NO_METHODS));
+	return sortFails(in, "Duplicate class C500");
+      }
+    });
+    cs.add(new Check("topoSort linear time") {	// 10x the classes: 100x if quadratic
+      String run() throws Exception {
+	Ast.ClassDecl[] small = forest(10000, new Random(42)), large = forest(100000, new Random(42));
+	for (int i = 0; i < 3; i++)	// warm up
+	  sortTime(small);
+	long ts = sortTime(small), tl = sortTime(large);
+	return (tl <= 30 * ts) ? null
+	  : String.format("%.1f ms for 100000 classes, %.1f ms for 10000", tl / 1e6, ts / 1e6);
+      }
+    });
+    return cs;
+  }
+
+  static void runChecks(List<String> only) {
+    int failed = 0;
+    for (Check c: checks()) {
+      boolean run = only.isEmpty();
+      for (String o: only)
+	run |= c.name.contains(o);
+      if (!run)
+	continue;
+      String why;
+      try {
+	why = c.run();
+      } catch (Exception e) {
+	why = e.toString();
+      }
+      System.out.println(((why == null) ? "PASS " : "FAIL ") + c.name + ((why == null) ? "" : ": " + why));
+      if (why != null)
+	failed++;
+    }
+    if (failed > 0)
+      System.exit(1);
+  }
+
+  //------------------------------------------------------------------------------
+  // Harness
+  //--------
+
+  static final com.sun.management.ThreadMXBean THREADS =
+    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  // One iteration: repeat b.op() for about ms milliseconds. Return
+  // { operations, elapsed ns, bytes allocated }.
+  //
+  static long[] iteration(Bench b, long ms) throws Exception {
+    long id = Thread.currentThread().getId();
+    long ops = 0, h = 0;
+    long a0 = THREADS.getThreadAllocatedBytes(id);
+    long t0 = System.nanoTime(), end = t0 + ms * 1000000L, t;
+    do {
+      for (int k = 0; k < 16; k++)
+	h += System.identityHashCode(b.op());
+      ops += 16;
+    } while ((t = System.nanoTime()) < end);
+    long a1 = THREADS.getThreadAllocatedBytes(id);
+    sink += (int) h;
+    return new long[] { ops, t - t0, a1 - a0 };
+  }
+
+  // All combinations of the parameter values, in order
+  //
+  static List<Map<String, Integer>> combinations(String[] names, int[][] values) {
+    List<Map<String, Integer>> out = new ArrayList<Map<String, Integer>>();
+    out.add(new LinkedHashMap<String, Integer>());
+    for (int i = 0; i < names.length; i++) {
+      List<Map<String, Integer>> next = new ArrayList<Map<String, Integer>>();
+      for (Map<String, Integer> m: out)
+	for (int v: values[i]) {
+	  Map<String, Integer> m2 = new LinkedHashMap<String, Integer>(m);
+	  m2.put(names[i], v);
+	  next.add(m2);
+	}
+      out = next;
+    }
+    return out;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int warmups = 3, iters = 5;
+    long ms = 500;
+    Map<String, int[]> overrides = new HashMap<String, int[]>();
+    List<String> only = new ArrayList<String>();
+    boolean check = false;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-check")) {
+	check = true;
+      } else if (args[i].equals("-wi")) {
+	warmups = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-i")) {
+	iters = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-t")) {
+	ms = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-p")) {
+	String[] kv = args[++i].split("=", 2);
+	String[] vs = kv[1].split(",");
+	int[] v = new int[vs.length];
+	for (int k = 0; k < vs.length; k++)
+	  v[k] = Integer.parseInt(vs[k]);
+	overrides.put(kv[0], v);
+      } else {
+	only.add(args[i]);
+      }
+    }
+    if (check) {
+      runChecks(only);
+      return;
+    }
+    System.out.printf("%-12s %-32s %14s %9s %14s %12s%n",
+		      "Benchmark", "Params", "ns/op", "error", "alloc B/op", "alloc MB/s");
+    for (Bench b: benches()) {
+      boolean run = only.isEmpty();
+      for (String o: only)
+	run |= b.name.contains(o);
+      if (!run)
+	continue;
+      int[][] values = b.values.clone();
+      for (int i = 0; i < b.params.length; i++)
+	if (overrides.containsKey(b.params[i]))
+	  values[i] = overrides.get(b.params[i]);
+      for (Map<String, Integer> p: combinations(b.params, values)) {
+	b.setup(p);
+	for (int i = 0; i < warmups; i++)
+	  iteration(b, ms);
+	double[] nsPerOp = new double[iters];
+	long ops = 0, ns = 0, bytes = 0;
+	for (int i = 0; i < iters; i++) {
+	  long[] r = iteration(b, ms);
+	  nsPerOp[i] = (double) r[1] / r[0];
+	  ops += r[0];
+	  ns += r[1];
+	  bytes += r[2];
+	}
+	double mean = (double) ns / ops, dev = 0;
+	for (double x: nsPerOp)
+	  dev += (x - mean) * (x - mean);
+	dev = (iters > 1) ? Math.sqrt(dev / (iters - 1)) : 0;
+	System.out.printf("%-12s %-32s %14.1f %8.1f%% %14.1f %12.1f%n",
+			  b.name, p.toString(), mean, 100 * dev / mean,
+			  (double) bytes / ops, bytes / (ns / 1e9) / (1 << 20));
+      }
+    }
+  }
+}
@@ -0,0 +1,122 @@
+// Result cache for the miniJava checker
+//
+// Maps a hash of (checker version, report-affecting options, source bytes)
+// to the report the checker produced for that source, so identical
+// resubmissions skip parsing and checking. Each entry is one file in the
+// cache directory, named by the hex key, and the directory may be shared
+// by concurrent checker processes:
+//  - entries are written to a temporary file and atomically renamed into
+//    place, so readers never see a partial entry;
+//  - a hit refreshes the entry's modification time, and when the directory
+//    grows past its bound the least recently used entries are deleted.
+//
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+
+class CheckerCache {
+
+  private static final String SUFFIX = ".res";
+
+  private final Path dir;
+  private final int maxEntries;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicInteger entries;	// approximate: other processes add too
+
+  CheckerCache(File dir, int maxEntries) throws IOException {
+    this.dir = dir.toPath();
+    this.maxEntries = Math.max(1, maxEntries);
+    Files.createDirectories(this.dir);
+    String[] names = dir.list();
+    this.entries = new AtomicInteger(names == null ? 0 : names.length);
+  }
+
+  // Return the cache key for source checked under variant
+  //
+  String key(byte[] source, String variant) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(variant.getBytes(StandardCharsets.UTF_8));
+      md.update((byte) 0);
+      md.update(source);
+      StringBuilder sb = new StringBuilder();
+      for (byte b: md.digest())
+	sb.append(String.format("%02x", b));
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);	// SHA-256 is always present
+    }
+  }
+
+  // Return the cached report for key, or null on a miss
+  //
+  String get(String key) {
+    Path f = dir.resolve(key + SUFFIX);
+    try {
+      String report = new String(Files.readAllBytes(f), StandardCharsets.UTF_8);
+      Files.setLastModifiedTime(f, FileTime.fromMillis(System.currentTimeMillis()));
+      hits.incrementAndGet();
+      return report;
+    } catch (IOException e) {		// absent, or evicted under our feet
+      misses.incrementAndGet();
+      return null;
+    }
+  }
+
+  // Store report under key; failures only cost a future miss
+  //
+  void put(String key, String report) {
+    Path tmp = null;
+    try {
+      tmp = Files.createTempFile(dir, key, ".tmp");
+      Files.write(tmp, report.getBytes(StandardCharsets.UTF_8));
+      Files.move(tmp, dir.resolve(key + SUFFIX),
+		 StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      tmp = null;
+      if (entries.incrementAndGet() > maxEntries)
+	evict();
+    } catch (IOException e) {
+      // leave the cache as it was
+    } finally {
+      if (tmp != null)
+	try { Files.deleteIfExists(tmp); } catch (IOException e) { }
+    }
+  }
+
+  // Delete least recently used entries until 90% of the bound remains
+  //
+  private synchronized void evict() {
+    if (entries.get() <= maxEntries)
+      return;				// another thread got here first
+    File[] files = dir.toFile().listFiles(new FilenameFilter() {
+      public boolean accept(File d, String name) { return name.endsWith(SUFFIX); }
+    });
+    if (files == null)
+      return;
+    final long[] mtimes = new long[files.length];
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < files.length; i++) {
+      mtimes[i] = files[i].lastModified();
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) { return Long.compare(mtimes[a], mtimes[b]); }
+    });
+    int keep = maxEntries - maxEntries / 10;
+    int n = files.length;
+    for (int i = 0; i < order.length && n > keep; i++)
+      if (files[order[i]].delete() || !files[order[i]].exists())
+	n--;
+    entries.set(n);
+  }
+
+  String summary() {
+    return String.format("cache: %d hits, %d misses", hits.get(), misses.get());
+  }
+}
@@ -0,0 +1,183 @@
+// Check daemon for the miniJava checker
+//
+// A long-running server, so editor integrations and graders that check one
+// program per save pay for JVM startup and a cold parser/checker only once.
+// Listens on a loopback TCP port; each connection is served on its own
+// (virtual, where the JVM has them) thread and may send any number of
+// requests, one per line:
+//
+//   CHECK path      parse and check the file at path
+//   SOURCE n        parse and check the n bytes of program text that follow
+//                   (0 <= n <= 64 MB)
+//   STATS           report request count and p50/p99 latency
+//   QUIT            close this connection
+//   SHUTDOWN        stop the daemon
+//
+// Each request is answered by a header line "PASS", "FAIL n" or "ERROR msg";
+// for FAIL, the n lines of diagnostics follow. A request line longer than
+// 64 KB, or a SOURCE whose length is bad, is answered with ERROR and the
+// connection closed, as where its program text ends cannot be known.
+//
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+class CheckerDaemon {
+
+  private static final int WINDOW = 1 << 14;	// latency samples kept
+  private static final int MAX_SOURCE = 1 << 26;	// largest SOURCE body, in bytes
+  private static final int MAX_LINE = 1 << 16;	// longest request line, in bytes
+
+  private final Checker.Options opts;
+  private final ServerSocket server;
+  private final long[] latencies = new long[WINDOW];	// ring buffer, in ns
+  private long requests = 0;
+
+  private CheckerDaemon(Checker.Options opts, ServerSocket server) {
+    this.opts = opts;
+    this.server = server;
+  }
+
+  // Listen on the loopback interface at opts.daemonPort until SHUTDOWN
+  //
+  static void serve(Checker.Options opts) throws IOException {
+    ServerSocket server = new ServerSocket(opts.daemonPort, 50, InetAddress.getLoopbackAddress());
+    System.out.println("Checker daemon listening on " + server.getLocalSocketAddress());
+    new CheckerDaemon(opts, server).acceptLoop();
+  }
+
+  private void acceptLoop() throws IOException {
+    ExecutorService threads = newRequestExecutor();
+    try {
+      while (!server.isClosed()) {
+	final Socket conn;
+	try {
+	  conn = server.accept();
+	} catch (SocketException e) {
+	  break;			// closed by SHUTDOWN
+	}
+	threads.execute(new Runnable() {
+	  public void run() { serveConnection(conn); }
+	});
+      }
+    } finally {
+      threads.shutdown();
+    }
+  }
+
+  // Virtual threads where available (JDK 21+), otherwise a cached pool
+  //
+  private static ExecutorService newRequestExecutor() {
+    try {
+      return (ExecutorService) Executors.class
+	.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (Exception e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  private void serveConnection(Socket conn) {
+    try {
+      InputStream in = new BufferedInputStream(conn.getInputStream());
+      PrintStream out = new PrintStream(conn.getOutputStream(), true, "UTF-8");
+      try {
+	String line;
+	while ((line = readLine(in)) != null) {
+	  if (line.equals("QUIT"))
+	    break;
+	  if (line.equals("SHUTDOWN")) {
+	    server.close();
+	    break;
+	  }
+	  out.print(handle(line, in));
+	}
+      } catch (ProtocolException e) {
+	out.print("ERROR " + e.getMessage() + "\n");	// and drop the rest
+      } finally {
+	conn.close();
+      }
+    } catch (IOException e) {
+      // connection dropped; nothing to report to
+    }
+  }
+
+  // Serve one request and return its full response text
+  // - ProtocolException if the stream can't be read on from here
+  //
+  private String handle(String line, InputStream in) throws IOException {
+    if (line.equals("STATS"))
+      return stats() + "\n";
+    long start = System.nanoTime();
+    String report;
+    if (line.startsWith("CHECK ")) {
+      report = Checker.checkFile(line.substring(6).trim(), opts);
+    } else if (line.startsWith("SOURCE ")) {
+      int n;
+      try {
+	n = Integer.parseInt(line.substring(7).trim());
+      } catch (NumberFormatException e) {
+	n = -1;
+      }
+      if (n < 0 || n > MAX_SOURCE)
+	throw new ProtocolException("bad length: " + line);
+      byte[] text = new byte[n];
+      int got = 0;
+      while (got < n) {
+	int k = in.read(text, got, n - got);
+	if (k < 0)
+	  return "ERROR truncated program text\n";
+	got += k;
+      }
+      report = Checker.checkBytes(text, opts);
+    } else {
+      return "ERROR unknown request: " + line + "\n";
+    }
+    record(System.nanoTime() - start);
+    if (report.length() == 0)
+      return "PASS\n";
+    int lines = 0;
+    for (int i = 0; i < report.length(); i++)
+      if (report.charAt(i) == '\n')
+	lines++;
+    return "FAIL " + lines + "\n" + report;
+  }
+
+  // Read a '\n'-terminated ASCII line (without the terminator) from in,
+  // leaving any following program bytes unread; null at end of stream
+  // - ProtocolException if the line is longer than MAX_LINE
+  //
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    int c;
+    while ((c = in.read()) >= 0 && c != '\n') {
+      if (buf.size() == MAX_LINE)
+	throw new ProtocolException("request line too long");
+      buf.write(c);
+    }
+    if (c < 0 && buf.size() == 0)
+      return null;
+    String line = new String(buf.toByteArray(), StandardCharsets.UTF_8);
+    return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+  }
+
+  private synchronized void record(long nanos) {
+    latencies[(int) (requests % WINDOW)] = nanos;
+    requests++;
+  }
+
+  // Request count, plus p50/p99 latency over the most recent WINDOW requests
+  //
+  private synchronized String stats() {
+    int n = (int) Math.min(requests, WINDOW);
+    String cache = (opts.cache == null) ? "" : " " + opts.cache.summary();
+    if (n == 0)
+      return "STATS requests 0" + cache;
+    long[] sorted = Arrays.copyOf(latencies, n);
+    Arrays.sort(sorted);
+    return String.format("STATS requests %d p50 %.3f ms p99 %.3f ms", requests,
+			 sorted[(n - 1) / 2] / 1e6, sorted[(int) ((n - 1) * 0.99)] / 1e6) + cache;
+  }
+}
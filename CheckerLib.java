@@ -0,0 +1,291 @@
+// Class interface files for the miniJava checker
+//
+// A .mji file holds the interfaces of one program's classes: what ClassInfo
+// needs of a class (name, parent, field types and names, method headers)
+// and nothing of its bodies. -emit DIR writes one for each program that
+// passes; -lib PATH loads them (a file, or a directory of them), so a
+// program can use those classes without their sources. Library classes
+// enter classEnv alongside the program's own classes but are not checked
+// again; a program class with the same name as a library class replaces it.
+// Only the library classes a program can reach are entered (see
+// Checker.withLibrary), so a large library costs a check little.
+//
+// A program's entry class (one declaring a void main) is not written, as
+// every program declares its own and no other program can use it; the
+// interfaces of many programs then load from one directory. It is kept
+// if another class of the program extends it.
+//
+// Format (big-endian, as DataOutputStream writes it):
+//
+//   file   := "MJI1" count:u4 class*
+//   class  := size:u4 name:str parent:str nflds:u2 field* nmthds:u2 method*
+//   field  := type name:str
+//   method := type name:str nparams:u2 (type name:str)*
+//   type   := 0 (none: void) | 1 (int) | 2 (boolean) | 3 name:str (class)
+//           | 4 type (array of type)
+//   str    := len:u2 UTF-8 bytes	(a parent of length 0: no parent)
+//
+// size counts the bytes of the rest of the record, so a reader can step
+// from class to class without decoding them. Files are read through a
+// MappedByteBuffer and decoded once, when loaded, into signature-only
+// ClassDecls (fields without inits, methods without bodies), which every
+// check then shares read-only.
+//
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import ast.*;
+
+class CheckerLib {
+
+  static final String SUFFIX = ".mji";
+
+  private static final int MAGIC = 0x4d4a4931;	// "MJI1"
+  private static final int VOID = 0, INT = 1, BOOL = 2, OBJ = 3, ARRAY = 4;
+  private static final Ast.VarDecl[] NO_VARS = new Ast.VarDecl[0];
+  private static final Ast.Stmt[] NO_STMTS = new Ast.Stmt[0];
+
+  private final ArrayList<Ast.ClassDecl> classes = new ArrayList<Ast.ClassDecl>();	// in load order
+  private final HashMap<String, Integer> index = new HashMap<String, Integer>();	// name -> position
+  private final MessageDigest md;
+  private final String digest;
+
+  // Load the interface files named by paths (files, or directories whose
+  // *.mji files are loaded in name order)
+  //
+  CheckerLib(List<String> paths) throws IOException {
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);	// SHA-256 is always present
+    }
+    for (String p: paths) {
+      File f = new File(p);
+      if (f.isDirectory()) {
+	File[] fs = f.listFiles(new FilenameFilter() {
+	  public boolean accept(File d, String name) { return name.endsWith(SUFFIX); }
+	});
+	Arrays.sort(fs);
+	for (File g: fs)
+	  load(g);
+      } else {
+	load(f);
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    for (byte b: md.digest())
+      sb.append(String.format("%02x", b));
+    digest = sb.toString();
+  }
+
+  // The library's classes, in load order: class i, and the position of
+  // the class named cname (-1 if the library has none)
+  //
+  Ast.ClassDecl get(int i) { return classes.get(i); }
+
+  int indexOf(String cname) {
+    Integer i = index.get(cname);
+    return (i == null) ? -1 : i;
+  }
+
+  int size() { return classes.size(); }
+
+  // Return true if c is one of the library's ClassDecls
+  //
+  boolean contains(Ast.ClassDecl c) {
+    int i = indexOf(c.nm);
+    return i >= 0 && classes.get(i) == c;
+  }
+
+  // A hash of the library's contents (see Checker.Options.variant)
+  //
+  String digest() { return digest; }
+
+  //------------------------------------------------------------------------------
+  // Reading
+  //--------
+
+  private void load(File f) throws IOException {
+    MappedByteBuffer b;
+    FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+    try {
+      b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+    } finally {
+      ch.close();			// the mapping stays valid
+    }
+    md.update(b.duplicate());
+    try {
+      if (b.getInt() != MAGIC)
+	throw new IOException(f + ": not a class interface file");
+      for (int n = b.getInt(); n > 0; n--) {
+	int size = b.getInt();
+	int end = b.position() + size;
+	Ast.ClassDecl c = decode(b);
+	if (b.position() != end)
+	  throw new IOException(f + ": malformed class " + c.nm);
+	if (index.put(c.nm, classes.size()) != null)
+	  throw new IOException(f + ": class " + c.nm + " is already in the library");
+	classes.add(c);
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IOException(f + ": truncated class interface file");
+    }
+  }
+
+  private static Ast.ClassDecl decode(ByteBuffer b) {
+    String nm = string(b);
+    String pnm = string(b);
+    Ast.VarDecl[] flds = new Ast.VarDecl[b.getShort() & 0xffff];
+    for (int i = 0; i < flds.length; i++) {
+      Ast.Type t = type(b);
+      flds[i] = new Ast.VarDecl(t, string(b), null);
+    }
+    Ast.MethodDecl[] mthds = new Ast.MethodDecl[b.getShort() & 0xffff];
+    for (int i = 0; i < mthds.length; i++) {
+      Ast.Type t = type(b);
+      String mnm = string(b);
+      Ast.Param[] params = new Ast.Param[b.getShort() & 0xffff];
+      for (int j = 0; j < params.length; j++) {
+	Ast.Type pt = type(b);
+	params[j] = new Ast.Param(pt, string(b));
+      }
+      mthds[i] = new Ast.MethodDecl(t, mnm, params, NO_VARS, NO_STMTS);
+    }
+    return new Ast.ClassDecl(nm, (pnm.length() == 0) ? null : pnm, flds, mthds);
+  }
+
+  private static Ast.Type type(ByteBuffer b) {
+    switch (b.get()) {
+    case VOID:  return null;
+    case INT:   return Ast.IntType;
+    case BOOL:  return Ast.BoolType;
+    case OBJ:   return new Ast.ObjType(string(b));
+    case ARRAY: return new Ast.ArrayType(type(b));
+    default:    throw new BufferUnderflowException();	// reported as malformed
+    }
+  }
+
+  private static String string(ByteBuffer b) {
+    byte[] s = new byte[b.getShort() & 0xffff];
+    b.get(s);
+    return new String(s, StandardCharsets.UTF_8);
+  }
+
+  //------------------------------------------------------------------------------
+  // Writing
+  //--------
+
+  // The interface file -emit writes for source file fname
+  //
+  static File emitFile(String dir, String fname) {
+    return outputFile(dir, fname, SUFFIX);
+  }
+
+  // The file in dir named after source file fname, with suffix in place
+  // of .java
+  //
+  static File outputFile(String dir, String fname, String suffix) {
+    String base = new File(fname).getName();
+    if (base.endsWith(".java"))
+      base = base.substring(0, base.length() - ".java".length());
+    return new File(dir, base + suffix);
+  }
+
+  // Write the interfaces of classes, less an entry class no other class
+  // extends, to f, replacing it atomically
+  //
+  static void write(Ast.ClassDecl[] all, File f) throws IOException {
+    HashSet<String> parents = new HashSet<String>();
+    for (Ast.ClassDecl c: all)
+      if (c.pnm != null)
+	parents.add(c.pnm);
+    ArrayList<Ast.ClassDecl> classes = new ArrayList<Ast.ClassDecl>();
+    for (Ast.ClassDecl c: all)
+      if (!isEntry(c) || parents.contains(c.nm))
+	classes.add(c);
+    ByteArrayOutputStream rec = new ByteArrayOutputStream();
+    DataOutputStream r = new DataOutputStream(rec);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(classes.size());
+    for (Ast.ClassDecl c: classes) {
+      rec.reset();
+      string(r, c.nm);
+      string(r, (c.pnm == null) ? "" : c.pnm);
+      r.writeShort(c.flds.length);
+      for (Ast.VarDecl v: c.flds) {
+	type(r, v.t);
+	string(r, v.nm);
+      }
+      r.writeShort(c.mthds.length);
+      for (Ast.MethodDecl m: c.mthds) {
+	type(r, m.t);
+	string(r, m.nm);
+	r.writeShort(m.params.length);
+	for (Ast.Param p: m.params) {
+	  type(r, p.t);
+	  string(r, p.nm);
+	}
+      }
+      r.flush();
+      out.writeInt(rec.size());
+      rec.writeTo(out);
+    }
+    out.flush();
+    replace(f, bytes.toByteArray());
+  }
+
+  // Return true if c declares the program's entry point, a void main
+  //
+  private static boolean isEntry(Ast.ClassDecl c) {
+    for (Ast.MethodDecl m: c.mthds)
+      if (m.t == null && m.nm.equals("main"))
+	return true;
+    return false;
+  }
+
+  // Write bytes to f through a temporary file in the same directory, so
+  // readers see either the old contents or the new, never part of them
+  //
+  static void replace(File f, byte[] bytes) throws IOException {
+    Path dir = f.getAbsoluteFile().getParentFile().toPath();
+    Files.createDirectories(dir);
+    Path tmp = Files.createTempFile(dir, f.getName(), ".tmp");
+    try {
+      Files.write(tmp, bytes);
+      Files.move(tmp, f.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      tmp = null;
+    } finally {
+      if (tmp != null)
+	Files.deleteIfExists(tmp);
+    }
+  }
+
+  private static void type(DataOutputStream out, Ast.Type t) throws IOException {
+    if (t == null) {
+      out.writeByte(VOID);
+    } else if (t instanceof Ast.IntType) {
+      out.writeByte(INT);
+    } else if (t instanceof Ast.BoolType) {
+      out.writeByte(BOOL);
+    } else if (t instanceof Ast.ObjType) {
+      out.writeByte(OBJ);
+      string(out, ((Ast.ObjType) t).nm);
+    } else {
+      out.writeByte(ARRAY);
+      type(out, ((Ast.ArrayType) t).et);
+    }
+  }
+
+  private static void string(DataOutputStream out, String s) throws IOException {
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    out.writeShort(b.length);
+    out.write(b);
+  }
+}
@@ -0,0 +1,193 @@
+// Instrumentation for the miniJava checker
+//
+// Where a check spends its time: wall-clock timers for the checker's
+// phases (parsing, topoSort, building the class environment, checking the
+// classes), the time spent in each class and each method, counts of the
+// AST nodes visited by kind, and counts of the lookups made.
+//
+// A Checker records into a CheckerStats only while one is attached (see
+// Checker.setStats); otherwise each hook is a single null test. The
+// -stats option attaches one per program checked and prints their sum
+// at the end of the run.
+//
+// Independently of that, every method checked is reported to JDK Flight
+// Recorder as a miniJava.MethodCheck event. The event is disabled unless a
+// recording turns it on, e.g.
+//   java -XX:StartFlightRecording=filename=check.jfr,settings=profile Checker ...
+// (or with jcmd JFR.start on a running daemon).
+//
+
+import java.util.*;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+public class CheckerStats {
+
+  // Timed phases
+  //
+  public static final int PARSE = 0, SORT = 1, ENV = 2, CHECK = 3;
+
+  static final int NPHASES = CHECK + 1;
+
+  private static final String[] PHASE_NAMES = { "parse", "topoSort", "classEnv", "check" };
+
+  private static final int TOP = 5;	// slowest classes/methods listed
+
+  final long[] nanos = new long[NPHASES];
+  final long[] nodes = new long[Checker.NKINDS];	// by Checker node kind
+  long programs, classes, methods;
+  long methodLookups;		// findMethodDecl probes
+  long fieldLookups;		// findFieldDecl probes
+  long assignables;		// assignable steps (array types recurse)
+  long subtypeTests;		// class-to-class steps among them
+  private final HashMap<String, Long> classNanos = new HashMap<String, Long>();
+  private final HashMap<String, Long> methodNanos = new HashMap<String, Long>();
+
+  // A miniJava.MethodCheck event: one method body checked
+  //
+  @Name("miniJava.MethodCheck")
+  @Label("Method Check")
+  @Category("miniJava")
+  @Description("Type checking of one method body")
+  static final class MethodCheckEvent extends Event {
+    @Label("Class") String className;
+    @Label("Method") String methodName;
+    @Label("Statements") int statements;
+    @Label("Passed") boolean passed;
+  }
+
+  //------------------------------------------------------------------------------
+  // Recording (called by the Checker that owns this instance)
+  //----------
+
+  // Add the time since start (a System.nanoTime() value) to phase
+  //
+  void time(int phase, long start) {
+    nanos[phase] += System.nanoTime() - start;
+  }
+
+  void timeClass(String cname, long start) {
+    add(classNanos, cname, System.nanoTime() - start);
+  }
+
+  void timeMethod(String qname, long start) {
+    methods++;
+    add(methodNanos, qname, System.nanoTime() - start);
+  }
+
+  private static void add(Map<String, Long> m, String key, long n) {
+    Long old = m.get(key);
+    m.put(key, (old == null) ? n : old + n);
+  }
+
+  // Add s's counts into this one
+  // - s must no longer be recording; this may be shared between threads
+  //
+  public synchronized void add(CheckerStats s) {
+    if (s == null)
+      return;
+    for (int i = 0; i < NPHASES; i++)
+      nanos[i] += s.nanos[i];
+    for (int i = 0; i < nodes.length; i++)
+      nodes[i] += s.nodes[i];
+    programs += s.programs;
+    classes += s.classes;
+    methods += s.methods;
+    methodLookups += s.methodLookups;
+    fieldLookups += s.fieldLookups;
+    assignables += s.assignables;
+    subtypeTests += s.subtypeTests;
+    for (Map.Entry<String, Long> e: s.classNanos.entrySet())
+      add(classNanos, e.getKey(), e.getValue());
+    for (Map.Entry<String, Long> e: s.methodNanos.entrySet())
+      add(methodNanos, e.getKey(), e.getValue());
+  }
+
+  //------------------------------------------------------------------------------
+  // Metrics
+  //--------
+  // Times are in nanoseconds. Phase times are wall-clock; class and method
+  // times are summed over the threads that checked them, so with -par they
+  // can add up to more than the check phase.
+  //
+
+  public synchronized long nanos(int phase) { return nanos[phase]; }
+
+  // Number of nodes of the given Checker node kind visited
+  //
+  public synchronized long nodes(int kind) { return nodes[kind]; }
+
+  public synchronized long nodes() {
+    long n = 0;
+    for (long k: nodes)
+      n += k;
+    return n;
+  }
+
+  public synchronized long programs() { return programs; }
+
+  public synchronized long classes() { return classes; }
+
+  public synchronized long methods() { return methods; }
+
+  public synchronized long methodLookups() { return methodLookups; }
+
+  public synchronized long fieldLookups() { return fieldLookups; }
+
+  public synchronized long assignableSteps() { return assignables; }
+
+  public synchronized long subtypeTests() { return subtypeTests; }
+
+  // Time per class (by class name) and per method ("Class.method")
+  //
+  public synchronized Map<String, Long> classNanos() {
+    return new HashMap<String, Long>(classNanos);
+  }
+
+  public synchronized Map<String, Long> methodNanos() {
+    return new HashMap<String, Long>(methodNanos);
+  }
+
+  // Name of Checker node kind k
+  //
+  public static String kindName(int k) {
+    return (k == Checker.OTHER) ? "Other" : Checker.kindClass(k).getSimpleName();
+  }
+
+  // A multi-line report of everything recorded
+  //
+  public synchronized String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("stats: %d programs, %d classes, %d methods, %d nodes%n",
+			    programs, classes, methods, nodes()));
+    for (int i = 0; i < NPHASES; i++)
+      sb.append(String.format("  %-10s %10.3f ms%n", PHASE_NAMES[i], nanos[i] / 1e6));
+    sb.append("  nodes:");
+    for (int k = 0; k < nodes.length; k++)
+      if (nodes[k] > 0)
+	sb.append(' ').append(kindName(k)).append(' ').append(nodes[k]);
+    sb.append(String.format("%n  lookups: findMethodDecl %d, findFieldDecl %d, assignable %d (%d subtype tests)%n",
+			    methodLookups, fieldLookups, assignables, subtypeTests));
+    slowest(sb, "classes", classNanos);
+    slowest(sb, "methods", methodNanos);
+    return sb.toString();
+  }
+
+  private static void slowest(StringBuilder sb, String what, Map<String, Long> m) {
+    if (m.isEmpty())
+      return;
+    List<Map.Entry<String, Long>> es = new ArrayList<Map.Entry<String, Long>>(m.entrySet());
+    Collections.sort(es, new Comparator<Map.Entry<String, Long>>() {
+      public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+	return b.getValue().compareTo(a.getValue());
+      }
+    });
+    sb.append("  slowest ").append(what).append(':');
+    for (int i = 0; i < Math.min(TOP, es.size()); i++)
+      sb.append(String.format(" %s %.3f ms", es.get(i).getKey(), es.get(i).getValue() / 1e6));
+    sb.append(String.format("%n"));
+  }
+}
@@ -0,0 +1,325 @@
+// Streaming mode for the miniJava checker
+//
+// Checks a program file without ever holding the whole program, so inputs
+// much larger than the heap can be checked (-stream). The file is read in
+// two passes:
+//
+//   1. A signature scan reads the file once, front to back, keeping only
+//      each class's name, parent, field declarations (without inits) and
+//      method headers, plus the extent of the class's text in the file.
+//      Method bodies and field inits are skipped by counting braces and
+//      semicolons; nothing in them is kept.
+//   2. Checker.check(sigs, bodies) builds classEnv from the signatures and
+//      asks for the classes in topoSort order; each is read back from its
+//      extent, parsed on its own by astParser, checked, and dropped.
+//
+// Peak heap is the signature tables plus the largest single class. For a
+// program that parses, the report is the same as without -stream. A syntax
+// error in a class body is only found when that class is parsed, so it is
+// reported then (with the class and its starting line), rather than
+// before any checking.
+//
+
+import java.util.*;
+import java.io.*;
+import ast.*;
+
+class CheckerStream {
+
+  // Check file fname a class at a time (see Checker.checkFile)
+  //
+  static String checkFile(String fname, Checker.Options opts) {
+    final Checker checker = opts.newChecker();
+    try {
+      final RandomAccessFile file = new RandomAccessFile(fname, "r");
+      try {
+	long start = System.nanoTime();
+	final Scanner scan = new Scanner(new BufferedInputStream(new FileInputStream(file.getFD()), 1 << 16));
+	Ast.ClassDecl[] sigs = scan.program();
+	if (checker.stats() != null)
+	  checker.stats().time(CheckerStats.PARSE, start);
+	Checker.Result r = checker.check(sigs, new Checker.ClassBodies() {
+	  public Ast.ClassDecl body(Ast.ClassDecl sig) throws Exception {
+	    long start = System.nanoTime();
+	    Ast.ClassDecl c = parse(file, scan.extents.get(sig), sig.nm);
+	    if (checker.stats() != null)
+	      checker.stats().time(CheckerStats.PARSE, start);
+	    return c;
+	  }
+	});
+	if (opts.emitDir != null && r.ok())
+	  CheckerLib.write(sigs, CheckerLib.emitFile(opts.emitDir, fname));
+	return r.toString();
+      } finally {
+	file.close();
+      }
+    } catch (Exception e) {
+      return e + "\n";
+    } finally {
+      if (opts.stats != null)
+	opts.stats.add(checker.stats());
+    }
+  }
+
+  // Read the text of one class back from file, and parse it
+  //
+  static Ast.ClassDecl parse(RandomAccessFile file, Extent x, String cname) throws Exception {
+    byte[] text = new byte[(int) (x.end - x.start)];
+    file.seek(x.start);
+    file.readFully(text);
+    Ast.Program p;
+    try {
+      p = new astParser(new ByteArrayInputStream(text)).Program();
+    } catch (Exception e) {
+      throw new SyntaxError("in class " + cname + " (line " + x.line + "): " + e);
+    }
+    if (p.classes.length != 1)
+      throw new SyntaxError("in class " + cname + " (line " + x.line + "): not a single class");
+    return p.classes[0];
+  }
+
+  // Where a class's text lies in the file: bytes [start, end), starting
+  // on line line
+  //
+  static final class Extent {
+    final long start, end;
+    final int line;
+
+    Extent(long start, long end, int line) {
+      this.start = start;
+      this.end = end;
+      this.line = line;
+    }
+  }
+
+  // A malformed program, as found by the scan (or by parsing a class)
+  //
+  static class SyntaxError extends Exception {
+    SyntaxError(String msg) { super(msg); }
+  }
+
+  //------------------------------------------------------------------------------
+  // Signature Scanner
+  //------------------
+  // A lexer plus just enough of the miniJava grammar to find the class
+  // signatures:
+  //
+  //   Program   -> {ClassDecl}
+  //   ClassDecl -> "class" ID ["extends" ID] "{" {VarDecl} {MethodDecl} "}"
+  //   VarDecl   -> Type ID ["=" ...] ";"
+  //   MethodDecl-> "public" ["static"] (Type | "void") ID "(" [Param {"," Param}] ")"
+  //                "{" ... "}"
+  //   Param     -> Type ID
+  //   Type      -> ("int" | "boolean" | ID) {"[" "]"}
+  //
+  // where "..." is skipped: everything up to the ";" of a field, and
+  // everything up to the matching "}" of a method body (braces inside
+  // comments and string literals do not count). As astParser does, main
+  // ("public static void main(String[] a)") gets no parameters.
+  //
+  static final class Scanner {
+    private static final Ast.VarDecl[] NO_VARS = new Ast.VarDecl[0];
+    private static final Ast.Param[] NO_PARAMS = new Ast.Param[0];
+    private static final Ast.Stmt[] NO_STMTS = new Ast.Stmt[0];
+
+    private final InputStream in;
+    private int c;			// the current byte, -1 at end of input
+    private long pos = -1;		// its offset
+    private int line = 1;		// its line
+    private final StringBuilder text = new StringBuilder();
+
+    String tok;				// the current token (null at end of input)
+    long tokStart, tokEnd;		// its extent
+    int tokLine;
+
+    final IdentityHashMap<Ast.ClassDecl, Extent> extents = new IdentityHashMap<Ast.ClassDecl, Extent>();
+
+    Scanner(InputStream in) throws IOException {
+      this.in = in;
+      advance();
+      next();
+    }
+
+    // Scan the whole input; return its class signatures, in file order
+    //
+    Ast.ClassDecl[] program() throws Exception {
+      List<Ast.ClassDecl> classes = new ArrayList<Ast.ClassDecl>();
+      while (tok != null)
+	classes.add(classDecl());
+      return classes.toArray(new Ast.ClassDecl[classes.size()]);
+    }
+
+    private Ast.ClassDecl classDecl() throws Exception {
+      long start = tokStart;
+      int first = tokLine;
+      expect("class");
+      String nm = ident();
+      String pnm = accept("extends") ? ident() : null;
+      expect("{");
+      List<Ast.VarDecl> flds = new ArrayList<Ast.VarDecl>();
+      List<Ast.MethodDecl> mthds = new ArrayList<Ast.MethodDecl>();
+      while (!is("}")) {
+	if (is("public")) {
+	  mthds.add(methodDecl());
+	} else {
+	  Ast.Type t = type();
+	  flds.add(new Ast.VarDecl(t, ident(), null));
+	  while (!is(";"))
+	    skip();
+	  next();
+	}
+      }
+      long end = tokEnd;
+      next();
+      Ast.ClassDecl c = new Ast.ClassDecl(nm, pnm, flds.toArray(NO_VARS),
+					  mthds.toArray(new Ast.MethodDecl[mthds.size()]));
+      extents.put(c, new Extent(start, end, first));
+      return c;
+    }
+
+    private Ast.MethodDecl methodDecl() throws Exception {
+      expect("public");
+      boolean main = accept("static");
+      Ast.Type t = accept("void") ? null : type();
+      String nm = ident();
+      expect("(");
+      List<Ast.Param> params = new ArrayList<Ast.Param>();
+      while (!is(")")) {
+	if (params.size() > 0)
+	  expect(",");
+	Ast.Type pt = type();
+	params.add(new Ast.Param(pt, ident()));
+      }
+      next();
+      expect("{");
+      for (int depth = 1; depth > 0; next()) {
+	if (is("{"))
+	  depth++;
+	else if (is("}"))
+	  depth--;
+	else if (tok == null)
+	  throw error("end of input in method " + nm);
+      }
+      return new Ast.MethodDecl(t, nm, main ? NO_PARAMS : params.toArray(NO_PARAMS), NO_VARS, NO_STMTS);
+    }
+
+    private Ast.Type type() throws Exception {
+      Ast.Type t;
+      if (accept("int"))
+	t = Ast.IntType;
+      else if (accept("boolean"))
+	t = Ast.BoolType;
+      else
+	t = new Ast.ObjType(ident());
+      while (accept("[")) {
+	expect("]");
+	t = new Ast.ArrayType(t);
+      }
+      return t;
+    }
+
+    //----------
+    // Tokens
+    //----------
+
+    private boolean is(String s) {
+      return s.equals(tok);
+    }
+
+    private boolean accept(String s) throws IOException {
+      if (!is(s))
+	return false;
+      next();
+      return true;
+    }
+
+    private void expect(String s) throws Exception {
+      if (!accept(s))
+	throw error("expected \"" + s + "\"");
+    }
+
+    private String ident() throws Exception {
+      String s = tok;
+      if (s == null || !Character.isJavaIdentifierStart(s.charAt(0)))
+	throw error("expected an identifier");
+      next();
+      return s;
+    }
+
+    private void skip() throws Exception {
+      if (tok == null)
+	throw error("unexpected end of input");
+      next();
+    }
+
+    private SyntaxError error(String msg) {
+      return new SyntaxError("line " + tokLine + ": " + msg
+			     + ((tok == null) ? "" : ", at \"" + tok + "\""));
+    }
+
+    // Advance to the next token: an identifier or keyword, a number, a
+    // string literal, or a single punctuation character
+    //
+    private void next() throws IOException {
+      for (;;) {
+	while (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f')
+	  advance();
+	if (c != '/')
+	  break;
+	advance();
+	if (c == '/') {
+	  while (c != '\n' && c != -1)
+	    advance();
+	} else if (c == '*') {
+	  advance();
+	  for (int prev = 0; c != -1 && !(prev == '*' && c == '/'); advance())
+	    prev = c;
+	  advance();
+	} else {
+	  token(pos - 1, line, "/");
+	  return;
+	}
+      }
+      long start = pos;
+      int first = line;
+      if (c == -1) {
+	tok = null;
+	tokStart = tokEnd = pos;
+	tokLine = line;
+	return;
+      }
+      text.setLength(0);
+      if (Character.isJavaIdentifierStart(c) || Character.isDigit(c)) {
+	while (c != -1 && Character.isJavaIdentifierPart(c)) {
+	  text.append((char) c);
+	  advance();
+	}
+      } else if (c == '"') {
+	do {
+	  text.append((char) c);
+	  advance();
+	} while (c != '"' && c != '\n' && c != -1);
+	text.append('"');
+	advance();
+      } else {
+	text.append((char) c);
+	advance();
+      }
+      token(start, first, text.toString());
+    }
+
+    private void token(long start, int first, String s) {
+      tok = s;
+      tokStart = start;
+      tokEnd = pos;
+      tokLine = first;
+    }
+
+    private void advance() throws IOException {
+      if (c == '\n')
+	line++;
+      c = in.read();
+      pos++;
+    }
+  }
+}
@@ -0,0 +1,668 @@
+// Synthetic miniJava programs, and an end-to-end scaling harness
+//
+// ProgramGen builds random (but reproducible, from a seed) miniJava
+// programs, as an AST and as source text. By default every program it
+// builds type-checks; with an error rate, that share of the methods gets
+// one deliberate type error each. The knobs:
+//
+//   -seed N        random seed (default 1)
+//   -classes N     number of classes, besides Main (default 20)
+//   -depth N       maximum inheritance depth (default 4)
+//   -fields N      fields per class (default 4)
+//   -methods N     methods per class (default 6)
+//   -stmts N       statements per block (default 6)
+//   -nesting N     maximum statement nesting depth (default 3)
+//   -expr N        expression size, in operators (default 4)
+//   -errors R      share of methods with an injected error, 0..1 (default 0)
+//
+// Usage: java ProgramGen [knobs] -o DIR -n N
+//          writes N programs (seeds seed .. seed+N-1) to DIR/genNNNN.java
+//        java ProgramGen [knobs] -scale K
+//          times each phase (generate, emit source, parse, check) on
+//          programs of classes, 2*classes, ... 2^(K-1)*classes classes,
+//          reporting time and peak heap per phase, and the check time per
+//          statement (best of five checks), so super-linear growth shows up
+//
+
+import java.util.*;
+import java.io.*;
+import java.lang.management.*;
+import ast.*;
+
+class ProgramGen {
+  long seed = 1;
+  int classes = 20, depth = 4, fields = 4, methods = 6;
+  int stmts = 6, nesting = 3, exprSize = 4;
+  double errorRate = 0;
+
+  //------------------------------------------------------------------------------
+  // Generator State
+  //----------------
+  // The generator tracks what a check routine would see, so everything it
+  // emits is well typed: the type of every var in scope, and the methods
+  // each class can call (own and inherited).
+  //
+  // nstmts - statements generated, for per-statement figures
+  // nerrors - errors injected into the last program
+  //
+  private Random rnd;
+  private String[] cnames;
+  private int[] parent, level;		// class index of the parent (-1 if none)
+  private List<List<Ast.VarDecl>> cfields;	// own fields, by class
+  private List<List<Ast.MethodDecl>> cmethods;	// own methods, by class
+  private LinkedHashMap<String, Ast.Type> scope;	// vars visible in the current method
+  private int thisClass;
+  private Ast.Type retType;
+  private boolean noReturn;		// dropping the method's returns
+  int nstmts, nerrors;
+
+  static final String USAGE = "Usage: java ProgramGen [knobs] -o DIR -n N | java ProgramGen [knobs] -scale K";
+
+  static final Ast.Type INT = Ast.IntType, BOOL = Ast.BoolType;
+  static final Ast.Type INTS = new Ast.ArrayType(Ast.IntType);
+
+  // Build one program from seed s
+  //
+  Ast.Program generate(long s) {
+    rnd = new Random(s);
+    nstmts = nerrors = 0;
+    cnames = new String[classes];
+    parent = new int[classes];
+    level = new int[classes];
+    cfields = new ArrayList<List<Ast.VarDecl>>();
+    cmethods = new ArrayList<List<Ast.MethodDecl>>();
+    for (int i = 0; i < classes; i++) {
+      cnames[i] = "C" + i;
+      parent[i] = -1;
+      if (i > 0 && rnd.nextInt(4) != 0) {
+	int p = rnd.nextInt(i);
+	if (level[p] < depth) {
+	  parent[i] = p;
+	  level[i] = level[p] + 1;
+	}
+      }
+    }
+    // Declarations first, so bodies can refer to any class's members
+    for (int i = 0; i < classes; i++) {
+      List<Ast.VarDecl> fs = new ArrayList<Ast.VarDecl>();
+      for (int k = 0; k < fields; k++)
+	fs.add(new Ast.VarDecl(randomFieldType(), "f" + i + "_" + k, null));
+      cfields.add(fs);
+      List<Ast.MethodDecl> ms = new ArrayList<Ast.MethodDecl>();
+      for (int k = 0; k < methods; k++) {
+	int np = rnd.nextInt(4);
+	Ast.Param[] ps = new Ast.Param[np];
+	for (int j = 0; j < np; j++)
+	  ps[j] = new Ast.Param(rnd.nextBoolean() ? INT : BOOL, "p" + j);
+	Ast.Type t = (rnd.nextInt(4) == 0) ? null : rnd.nextBoolean() ? INT : BOOL;
+	ms.add(new Ast.MethodDecl(t, "m" + i + "_" + k, ps, null, null));
+      }
+      cmethods.add(ms);
+    }
+    Ast.ClassDecl[] cs = new Ast.ClassDecl[classes + 1];
+    cs[0] = new Ast.ClassDecl("Main", null, new Ast.VarDecl[0], new Ast.MethodDecl[] {
+	new Ast.MethodDecl(null, "main", new Ast.Param[0], new Ast.VarDecl[0], new Ast.Stmt[] {
+	    new Ast.Print(new Ast.StrLit("generated")) }) });
+    for (int i = 0; i < classes; i++) {
+      thisClass = i;
+      List<Ast.MethodDecl> ms = cmethods.get(i);
+      Ast.MethodDecl[] bodies = new Ast.MethodDecl[ms.size()];
+      for (int k = 0; k < bodies.length; k++)
+	bodies[k] = method(ms.get(k));
+      cs[i + 1] = new Ast.ClassDecl(cnames[i], (parent[i] < 0) ? null : cnames[parent[i]],
+				    cfields.get(i).toArray(new Ast.VarDecl[0]), bodies);
+    }
+    return new Ast.Program(cs);
+  }
+
+  private Ast.Type randomFieldType() {
+    switch (rnd.nextInt(5)) {
+    case 0:  return BOOL;
+    case 1:  return INTS;
+    case 2:  return new Ast.ObjType(cnames[rnd.nextInt(classes)]);
+    default: return INT;
+    }
+  }
+
+  // Fill in the body of method header m (of class thisClass)
+  //
+  private Ast.MethodDecl method(Ast.MethodDecl m) {
+    retType = m.t;
+    scope = new LinkedHashMap<String, Ast.Type>();
+    for (int c = thisClass; c >= 0; c = parent[c])
+      for (Ast.VarDecl f: cfields.get(c))
+	if (!scope.containsKey(f.nm))
+	  scope.put(f.nm, f.t);
+    for (Ast.Param p: m.params)
+      scope.put(p.nm, p.t);
+    int nv = 1 + rnd.nextInt(3);
+    Ast.VarDecl[] vars = new Ast.VarDecl[nv];
+    for (int j = 0; j < nv; j++) {
+      Ast.Type t = rnd.nextBoolean() ? INT : BOOL;
+      vars[j] = new Ast.VarDecl(t, "v" + j, exp(t, 1));
+      scope.put(vars[j].nm, t);
+    }
+    boolean inject = rnd.nextDouble() < errorRate;
+    int kind = inject ? rnd.nextInt(6) : -1;
+    if (kind == 5 && m.t == null)
+      kind = 0;				// no return to drop
+    noReturn = (kind == 5);
+    List<Ast.Stmt> body = new ArrayList<Ast.Stmt>(block(nesting));
+    boolean returned = body.get(body.size() - 1) instanceof Ast.Return;
+    if (kind >= 0 && kind < 5) {
+      body.add(rnd.nextInt(returned ? body.size() : body.size() + 1), error(kind));
+      nstmts++;
+    }
+    if (m.t != null && kind != 5 && !returned) {
+      body.add(new Ast.Return(exp(m.t, exprSize)));
+      nstmts++;
+    }
+    if (inject)
+      nerrors++;
+    return new Ast.MethodDecl(m.t, m.nm, m.params, vars, body.toArray(new Ast.Stmt[0]));
+  }
+
+  // One statement with a type error of the given kind
+  //
+  private Ast.Stmt error(int kind) {
+    switch (kind) {
+    case 0: {				// bool to int, or int to bool
+      String v = varOf(INT, null);
+      if (v != null)
+	return new Ast.Assign(new Ast.Id(v), exp(BOOL, 1));
+      return new Ast.Assign(new Ast.Id(varOf(BOOL, null)), exp(INT, 1));
+    }
+    case 1:				// undeclared var
+      return new Ast.Assign(new Ast.Id("undeclared"), new Ast.IntLit(0));
+    case 2:				// unknown method
+      return new Ast.CallStmt(new Ast.This(), "missing", new Ast.Exp[0]);
+    case 3: {				// arg count
+      if (cmethods.get(thisClass).isEmpty())
+	return error(2);		// no method to miscall
+      Ast.MethodDecl m = cmethods.get(thisClass).get(0);
+      Ast.Exp[] args = new Ast.Exp[m.params.length + 1];
+      for (int j = 0; j < args.length; j++)
+	args[j] = new Ast.IntLit(j);
+      return new Ast.CallStmt(new Ast.This(), m.nm, args);
+    }
+    default:				// int condition
+      return new Ast.If(exp(INT, 1), new Ast.Block(new Ast.Stmt[0]), null);
+    }
+  }
+
+  private List<Ast.Stmt> block(int nest) {
+    int n = 1 + rnd.nextInt(stmts);
+    List<Ast.Stmt> ss = new ArrayList<Ast.Stmt>(n);
+    for (int i = 0; i < n; i++) {
+      Ast.Stmt st = stmt(nest);
+      ss.add(st);
+      if (st instanceof Ast.Return)
+	break;				// the rest would be unreachable
+    }
+    return ss;
+  }
+
+  private Ast.Stmt stmt(int nest) {
+    nstmts++;
+    int r = rnd.nextInt((nest > 0) ? 10 : 6);
+    switch (r) {
+    case 0: case 1: {			// int or boolean assignment
+      Ast.Type t = (r == 0) ? INT : BOOL;
+      String v = varOf(t, null);
+      if (v == null) {			// every method has a local of one of them
+	t = (t == INT) ? BOOL : INT;
+	v = varOf(t, null);
+      }
+      return new Ast.Assign(new Ast.Id(v), exp(t, exprSize));
+    }
+    case 2: {				// array element, new array, or new object
+      String a = varOf(INTS, null);
+      if (a != null)
+	return rnd.nextBoolean()
+	  ? new Ast.Assign(new Ast.ArrayElm(new Ast.Id(a), exp(INT, 1)), exp(INT, exprSize))
+	  : new Ast.Assign(new Ast.Id(a), new Ast.NewArray(INT, 1 + rnd.nextInt(100)));
+      String o = objVar();
+      if (o != null) {
+	String c = ((Ast.ObjType) scope.get(o)).nm;
+	return new Ast.Assign(new Ast.Id(o), new Ast.NewObj(subclassOf(c)));
+      }
+      return new Ast.Print(exp(INT, exprSize));
+    }
+    case 3: {				// call statement
+      Ast.Exp call = call(null);
+      if (call != null)
+	return new Ast.CallStmt(((Ast.Call) call).obj, ((Ast.Call) call).nm, ((Ast.Call) call).args);
+      return new Ast.Print(exp(BOOL, exprSize));
+    }
+    case 4:
+      return new Ast.Print(rnd.nextBoolean() ? exp(INT, exprSize) : exp(BOOL, exprSize));
+    case 5:
+      if (retType != null && !noReturn && rnd.nextInt(4) == 0)
+	return new Ast.Return(exp(retType, exprSize));
+      return new Ast.Print(new Ast.StrLit("s" + rnd.nextInt(1000)));
+    case 6: case 7:
+      return new Ast.If(exp(BOOL, exprSize), body(nest - 1),
+			rnd.nextBoolean() ? body(nest - 1) : null);
+    case 8:
+      return new Ast.While(exp(BOOL, exprSize), body(nest - 1));
+    default:
+      return new Ast.Block(block(nest - 1).toArray(new Ast.Stmt[0]));
+    }
+  }
+
+  private Ast.Stmt body(int nest) {
+    return rnd.nextBoolean() ? stmt(nest) : new Ast.Block(block(nest).toArray(new Ast.Stmt[0]));
+  }
+
+  // A name in scope with type t (a random one), or dflt if there is none
+  //
+  private String varOf(Ast.Type t, String dflt) {
+    List<String> names = new ArrayList<String>();
+    for (Map.Entry<String, Ast.Type> e: scope.entrySet())
+      if (e.getValue() == t)
+	names.add(e.getKey());
+    return names.isEmpty() ? dflt : names.get(rnd.nextInt(names.size()));
+  }
+
+  private String objVar() {
+    List<String> names = new ArrayList<String>();
+    for (Map.Entry<String, Ast.Type> e: scope.entrySet())
+      if (e.getValue() instanceof Ast.ObjType)
+	names.add(e.getKey());
+    return names.isEmpty() ? null : names.get(rnd.nextInt(names.size()));
+  }
+
+  // A random class that is cname or one of its subclasses
+  //
+  private String subclassOf(String cname) {
+    int c = Integer.parseInt(cname.substring(1));
+    List<String> subs = new ArrayList<String>();
+    for (int i = 0; i < classes; i++)
+      for (int a = i; a >= 0; a = parent[a])
+	if (a == c) {
+	  subs.add(cnames[i]);
+	  break;
+	}
+    return subs.get(rnd.nextInt(subs.size()));
+  }
+
+  // A call of a method returning t (any method if t is null), on this or
+  // on an object in scope; null if there is none
+  //
+  private Ast.Exp call(Ast.Type t) {
+    Ast.Exp obj = new Ast.This();
+    int c = thisClass;
+    String o = objVar();
+    if (o != null && rnd.nextBoolean()) {
+      obj = new Ast.Id(o);
+      c = Integer.parseInt(((Ast.ObjType) scope.get(o)).nm.substring(1));
+    }
+    List<Ast.MethodDecl> cands = new ArrayList<Ast.MethodDecl>();
+    for (int a = c; a >= 0; a = parent[a])
+      for (Ast.MethodDecl m: cmethods.get(a))
+	if (t == null || m.t == t)
+	  cands.add(m);
+    if (cands.isEmpty())
+      return null;
+    Ast.MethodDecl m = cands.get(rnd.nextInt(cands.size()));
+    Ast.Exp[] args = new Ast.Exp[m.params.length];
+    for (int j = 0; j < args.length; j++)
+      args[j] = exp(m.params[j].t, 1);
+    return new Ast.Call(obj, m.nm, args);
+  }
+
+  // An expression of type t (int or boolean) with about size operators
+  //
+  private Ast.Exp exp(Ast.Type t, int size) {
+    if (size <= 0 || rnd.nextInt(size + 2) == 0)
+      return leaf(t);
+    int l = rnd.nextInt(size), r = size - 1 - l;
+    if (t == INT) {
+      switch (rnd.nextInt(6)) {
+      case 0:  return new Ast.Unop(Ast.UOP.NEG, exp(INT, size - 1));
+      case 1:
+	Ast.Exp c = call(INT);
+	if (c != null)
+	  return c;
+	// fall through
+      case 2:  return new Ast.Binop(Ast.BOP.SUB, exp(INT, l), exp(INT, r));
+      case 3:  return new Ast.Binop(Ast.BOP.MUL, exp(INT, l), exp(INT, r));
+      default: return new Ast.Binop(Ast.BOP.ADD, exp(INT, l), exp(INT, r));
+      }
+    }
+    switch (rnd.nextInt(6)) {
+    case 0:  return new Ast.Unop(Ast.UOP.NOT, exp(BOOL, size - 1));
+    case 1:
+      Ast.Exp c = call(BOOL);
+      if (c != null)
+	return c;
+      // fall through
+    case 2:  return new Ast.Binop(rnd.nextBoolean() ? Ast.BOP.AND : Ast.BOP.OR, exp(BOOL, l), exp(BOOL, r));
+    case 3:  return new Ast.Binop(rnd.nextBoolean() ? Ast.BOP.EQ : Ast.BOP.NE, exp(INT, l), exp(INT, r));
+    default:
+      Ast.BOP[] rel = { Ast.BOP.LT, Ast.BOP.LE, Ast.BOP.GT, Ast.BOP.GE };
+      return new Ast.Binop(rel[rnd.nextInt(4)], exp(INT, l), exp(INT, r));
+    }
+  }
+
+  private Ast.Exp leaf(Ast.Type t) {
+    int r = rnd.nextInt(4);
+    if (r == 0) {
+      String v = varOf(t, null);
+      if (v != null)
+	return new Ast.Id(v);
+    }
+    if (r == 1 && t == INT) {
+      String a = varOf(INTS, null);
+      if (a != null)
+	return new Ast.ArrayElm(new Ast.Id(a), new Ast.IntLit(rnd.nextInt(10)));
+    }
+    if (r == 2) {
+      String o = objVar();
+      if (o != null) {
+	int c = Integer.parseInt(((Ast.ObjType) scope.get(o)).nm.substring(1));
+	for (int a = c; a >= 0; a = parent[a])
+	  for (Ast.VarDecl f: cfields.get(a))
+	    if (f.t == t)
+	      return new Ast.Field(new Ast.Id(o), f.nm);
+      }
+    }
+    return (t == INT) ? new Ast.IntLit(rnd.nextInt(1000)) : new Ast.BoolLit(rnd.nextBoolean());
+  }
+
+  //------------------------------------------------------------------------------
+  // Source Text
+  //------------
+  // Print a program in miniJava syntax. Binary operations are fully
+  // parenthesized, and "new" only appears as a whole right-hand side, as
+  // the grammar requires.
+  //
+  static String source(Ast.Program p) {
+    StringBuilder sb = new StringBuilder();
+    for (Ast.ClassDecl c: p.classes) {
+      sb.append("class ").append(c.nm);
+      if (c.pnm != null)
+	sb.append(" extends ").append(c.pnm);
+      sb.append(" {\n");
+      for (Ast.VarDecl v: c.flds)
+	var(sb, v, "  ");
+      for (Ast.MethodDecl m: c.mthds) {
+	if (m.nm.equals("main") && m.t == null) {
+	  sb.append("  public static void main(String[] a) {\n");
+	} else {
+	  sb.append("  public ").append((m.t == null) ? "void" : type(m.t)).append(' ').append(m.nm).append('(');
+	  for (int i = 0; i < m.params.length; i++)
+	    sb.append((i > 0) ? ", " : "").append(type(m.params[i].t)).append(' ').append(m.params[i].nm);
+	  sb.append(") {\n");
+	}
+	for (Ast.VarDecl v: m.vars)
+	  var(sb, v, "    ");
+	for (Ast.Stmt s: m.stmts)
+	  stmt(sb, s, "    ");
+	sb.append("  }\n");
+      }
+      sb.append("}\n");
+    }
+    return sb.toString();
+  }
+
+  static String type(Ast.Type t) {
+    if (t instanceof Ast.IntType)   return "int";
+    if (t instanceof Ast.BoolType)  return "boolean";
+    if (t instanceof Ast.ArrayType) return type(((Ast.ArrayType) t).et) + "[]";
+    return ((Ast.ObjType) t).nm;
+  }
+
+  static void var(StringBuilder sb, Ast.VarDecl v, String ind) {
+    sb.append(ind).append(type(v.t)).append(' ').append(v.nm);
+    if (v.init != null)
+      exp(sb.append(" = "), v.init);
+    sb.append(";\n");
+  }
+
+  static void stmt(StringBuilder sb, Ast.Stmt s, String ind) {
+    if (s instanceof Ast.Block) {
+      sb.append(ind).append("{\n");
+      for (Ast.Stmt t: ((Ast.Block) s).stmts)
+	stmt(sb, t, ind + "  ");
+      sb.append(ind).append("}\n");
+    } else if (s instanceof Ast.Assign) {
+      exp(sb.append(ind), ((Ast.Assign) s).lhs);
+      exp(sb.append(" = "), ((Ast.Assign) s).rhs);
+      sb.append(";\n");
+    } else if (s instanceof Ast.CallStmt) {
+      Ast.CallStmt c = (Ast.CallStmt) s;
+      call(sb.append(ind), c.obj, c.nm, c.args);
+      sb.append(";\n");
+    } else if (s instanceof Ast.If) {
+      Ast.If c = (Ast.If) s;
+      exp(sb.append(ind).append("if ("), c.cond);
+      sb.append(")\n");
+      if (c.s2 != null && !(c.s1 instanceof Ast.Block))	// braced, so the else
+	stmt(sb, new Ast.Block(new Ast.Stmt[] { c.s1 }), ind + "  ");	// can't bind inside s1
+      else
+	stmt(sb, c.s1, ind + "  ");
+      if (c.s2 != null) {
+	sb.append(ind).append("else\n");
+	stmt(sb, c.s2, ind + "  ");
+      }
+    } else if (s instanceof Ast.While) {
+      exp(sb.append(ind).append("while ("), ((Ast.While) s).cond);
+      sb.append(")\n");
+      stmt(sb, ((Ast.While) s).s, ind + "  ");
+    } else if (s instanceof Ast.Print) {
+      Ast.PrArg a = ((Ast.Print) s).arg;
+      sb.append(ind).append("System.out.println(");
+      if (a instanceof Ast.StrLit)
+	sb.append('"').append(((Ast.StrLit) a).s).append('"');
+      else if (a != null)
+	exp(sb, (Ast.Exp) a);
+      sb.append(");\n");
+    } else if (s instanceof Ast.Return) {
+      sb.append(ind).append("return");
+      if (((Ast.Return) s).val != null)
+	exp(sb.append(' '), ((Ast.Return) s).val);
+      sb.append(";\n");
+    }
+  }
+
+  static void call(StringBuilder sb, Ast.Exp obj, String nm, Ast.Exp[] args) {
+    exp(sb, obj);
+    sb.append('.').append(nm).append('(');
+    for (int i = 0; i < args.length; i++)
+      exp(sb.append((i > 0) ? ", " : ""), args[i]);
+    sb.append(')');
+  }
+
+  static void exp(StringBuilder sb, Ast.Exp e) {
+    if (e instanceof Ast.Binop) {
+      Ast.Binop b = (Ast.Binop) e;
+      exp(sb.append('('), b.e1);
+      exp(sb.append(' ').append(op(b.op)).append(' '), b.e2);
+      sb.append(')');
+    } else if (e instanceof Ast.Unop) {
+      sb.append((((Ast.Unop) e).op == Ast.UOP.NEG) ? "-(" : "!(");
+      exp(sb, ((Ast.Unop) e).e);
+      sb.append(')');
+    } else if (e instanceof Ast.Call) {
+      call(sb, ((Ast.Call) e).obj, ((Ast.Call) e).nm, ((Ast.Call) e).args);
+    } else if (e instanceof Ast.NewArray) {
+      sb.append("new ").append(type(((Ast.NewArray) e).et)).append('[').append(((Ast.NewArray) e).len).append(']');
+    } else if (e instanceof Ast.ArrayElm) {
+      exp(sb, ((Ast.ArrayElm) e).ar);
+      exp(sb.append('['), ((Ast.ArrayElm) e).idx);
+      sb.append(']');
+    } else if (e instanceof Ast.NewObj) {
+      sb.append("new ").append(((Ast.NewObj) e).nm).append("()");
+    } else if (e instanceof Ast.Field) {
+      exp(sb, ((Ast.Field) e).obj);
+      sb.append('.').append(((Ast.Field) e).nm);
+    } else if (e instanceof Ast.This) {
+      sb.append("this");
+    } else if (e instanceof Ast.Id) {
+      sb.append(((Ast.Id) e).nm);
+    } else if (e instanceof Ast.IntLit) {
+      sb.append(((Ast.IntLit) e).i);
+    } else if (e instanceof Ast.BoolLit) {
+      sb.append(((Ast.BoolLit) e).b);
+    }
+  }
+
+  static String op(Ast.BOP op) {
+    switch (op) {
+    case ADD: return "+";
+    case SUB: return "-";
+    case MUL: return "*";
+    case DIV: return "/";
+    case AND: return "&&";
+    case OR:  return "||";
+    case EQ:  return "==";
+    case NE:  return "!=";
+    case LT:  return "<";
+    case LE:  return "<=";
+    case GT:  return ">";
+    default:  return ">=";
+    }
+  }
+
+  //------------------------------------------------------------------------------
+  // Scaling Harness
+  //----------------
+
+  // Heap in use, summed over the heap pools: the peak since the last
+  // resetPeak() if peak is set, otherwise the current usage
+  //
+  static long heapUsed(boolean peak) {
+    long sum = 0;
+    for (MemoryPoolMXBean mp: ManagementFactory.getMemoryPoolMXBeans())
+      if (mp.getType() == MemoryType.HEAP)
+	sum += (peak ? mp.getPeakUsage() : mp.getUsage()).getUsed();
+    return sum;
+  }
+
+  static void resetPeak() {
+    System.gc();
+    for (MemoryPoolMXBean mp: ManagementFactory.getMemoryPoolMXBeans())
+      if (mp.getType() == MemoryType.HEAP)
+	mp.resetPeakUsage();
+  }
+
+  // Run K rounds, doubling the class count each round
+  //
+  void scale(int rounds, PrintStream out) throws Exception {
+    out.printf("%8s %8s %8s | %9s %9s %9s %9s | %8s %8s %8s | %9s %7s%n",
+	       "classes", "stmts", "src KB", "gen ms", "emit ms", "parse ms", "check ms",
+	       "gen MB", "parse MB", "check MB", "ns/stmt", "growth");
+    int base = classes;
+    double prev = 0;
+    for (int k = 0; k < rounds; k++, classes *= 2) {
+      Checker checker = new Checker();
+      for (int w = 0; w < 3; w++)	// warm up the JIT on a small program
+	checker.check(new ProgramGen().generate(w));
+
+      resetPeak();
+      long base0 = heapUsed(false);
+      long t0 = System.nanoTime();
+      Ast.Program gen = generate(seed);
+      long tGen = System.nanoTime() - t0, mGen = heapUsed(true) - base0;
+
+      t0 = System.nanoTime();
+      byte[] src = source(gen).getBytes("UTF-8");
+      long tEmit = System.nanoTime() - t0;
+
+      Ast.Program prog = gen;
+      String parseNote = null;
+      resetPeak();
+      base0 = heapUsed(false);
+      t0 = System.nanoTime();
+      try {
+	prog = new astParser(new ByteArrayInputStream(src)).Program();
+      } catch (Exception e) {
+	parseNote = e.toString();	// go on checking the generated AST
+      }
+      long tParse = System.nanoTime() - t0, mParse = heapUsed(true) - base0;
+
+      resetPeak();
+      base0 = heapUsed(false);
+      t0 = System.nanoTime();
+      Checker.Result r = checker.check(prog);
+      long tCheck = System.nanoTime() - t0, mCheck = heapUsed(true) - base0;
+      for (int i = 0; i < 4; i++) {	// best of five, once the JIT has seen it
+	t0 = System.nanoTime();
+	checker.check(prog);
+	tCheck = Math.min(tCheck, System.nanoTime() - t0);
+      }
+
+      double perStmt = (double) tCheck / Math.max(1, nstmts);
+      out.printf("%8d %8d %8d | %9.1f %9.1f %9s %9.1f | %8.1f %8s %8.1f | %9.1f %7s%n",
+		 classes, nstmts, src.length >> 10, tGen / 1e6, tEmit / 1e6,
+		 (parseNote == null) ? String.format("%.1f", tParse / 1e6) : "-",
+		 tCheck / 1e6, mGen / 1048576.0,
+		 (parseNote == null) ? String.format("%.1f", mParse / 1048576.0) : "-",
+		 mCheck / 1048576.0, perStmt,
+		 (prev == 0) ? "" : String.format("x%.2f", perStmt / prev));
+      if (parseNote != null)
+	out.println("  parse failed (" + parseNote + "), checked the generated AST");
+      if (r.ok() != (nerrors == 0))
+	out.println("  unexpected verdict with " + nerrors + " injected error(s): " + r.toString().trim());
+      prev = perStmt;
+    }
+    classes = base;
+  }
+
+  public static void main(String[] args) throws Exception {
+    ProgramGen g = new ProgramGen();
+    String dir = null;
+    int count = 1, rounds = 0;
+    for (int i = 0; i < args.length; i++) {
+      String a = args[i];
+      if (i + 1 == args.length) {
+	System.out.println("Missing value for " + a);
+	return;
+      }
+      String v = args[++i];
+      try {
+	if (a.equals("-seed"))         g.seed = Long.parseLong(v);
+	else if (a.equals("-classes")) g.classes = Integer.parseInt(v);
+	else if (a.equals("-depth"))   g.depth = Integer.parseInt(v);
+	else if (a.equals("-fields"))  g.fields = Integer.parseInt(v);
+	else if (a.equals("-methods")) g.methods = Integer.parseInt(v);
+	else if (a.equals("-stmts"))   g.stmts = Integer.parseInt(v);
+	else if (a.equals("-nesting")) g.nesting = Integer.parseInt(v);
+	else if (a.equals("-expr"))    g.exprSize = Integer.parseInt(v);
+	else if (a.equals("-errors"))  g.errorRate = Double.parseDouble(v);
+	else if (a.equals("-o"))       dir = v;
+	else if (a.equals("-n"))       count = Integer.parseInt(v);
+	else if (a.equals("-scale"))   rounds = Integer.parseInt(v);
+	else {
+	  System.out.println("Unknown option " + a);
+	  return;
+	}
+      } catch (NumberFormatException e) {
+	System.out.println("Bad number for " + a + ": " + v);
+	System.out.println(USAGE);
+	return;
+      }
+    }
+    if (rounds > 0) {
+      g.scale(rounds, System.out);
+    } else if (dir != null) {
+      new File(dir).mkdirs();
+      int bad = 0;
+      for (int i = 0; i < count; i++) {
+	String src = source(g.generate(g.seed + i));
+	if (g.nerrors > 0)
+	  bad++;
+	Writer w = new OutputStreamWriter(new FileOutputStream(new File(dir, String.format("gen%04d.java", i))), "UTF-8");
+	try {
+	  w.write(src);
+	} finally {
+	  w.close();
+	}
+      }
+      System.out.printf("%d programs written to %s, %d with injected errors%n", count, dir, bad);
+    } else {
+      System.out.println("Need -o DIR or -scale K");
+    }
+  }
+}
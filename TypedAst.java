@@ -0,0 +1,376 @@
+// Typed-AST side table for the miniJava checker
+//
+// What the checker worked out about a program, kept for later compiler
+// stages so they need not work it out again: the type of every expression,
+// the method every Call and CallStmt calls, and the field every Field (and
+// every Id that names a field) refers to, with the class that declares it.
+//
+// Nodes are identified by dense IDs: the statements and expressions of the
+// program (and the string literals of Prints) are numbered 0, 1, ... in
+// preorder, i.e. class by class in program order, within a class its field
+// inits and then each method's var inits and statements, and within a node
+// its children in the order Ast declares them. A later stage walking the
+// AST in the same order can index the table with a counter; id(node) gives
+// the same answer through a map.
+//
+// A node object reachable more than once (a generated AST may share an
+// Id or a subexpression) has one ID, from its first occurrence; a later
+// occurrence, and everything below it, is not numbered again, so a
+// counter-based walk must skip nodes it has seen. Its entries are those
+// the checker recorded for it last.
+//
+// A Checker fills one in for each check(Ast.Program) while recording is
+// on (see Checker.setTypedAst). The table is complete for a program that
+// passes; where checking stopped at an error, later nodes are left empty.
+// write() and read() store and load it in a compact binary form:
+//
+//   file   := "MJT1" nstrings:v str* ntypes:v type* nnodes:v node*
+//   str    := len:v UTF-8 bytes
+//   type   := 1 (int) | 2 (boolean) | 3 name:v (class) | 4 elem:v (array)
+//   node   := type:v member
+//   member := 0 | 1 owner:v (method) | 2 owner:v (field)
+//
+// where v is an unsigned LEB128 varint, name and owner index the strings,
+// elem indexes an earlier type, and a node's type is 0 for none or one
+// plus its index. A member is named by its node (Call.nm, Field.nm, ...)
+// and the class that declares it.
+//
+
+import java.util.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import ast.*;
+
+public class TypedAst {
+
+  static final String SUFFIX = ".mjt";
+  private static final int MAGIC = 0x4d4a5431;	// "MJT1"
+  private static final int INT = 1, BOOL = 2, OBJ = 3, ARRAY = 4;
+  private static final int NONE = 0, METHOD = 1, FIELD = 2;
+
+  private final Object[] nodes;		// by ID
+  private final Object[] keys;		// node -> ID, open addressing by
+  private final int[] keyIds;		//   identity (see slot)
+  private final int shift;
+  private final Ast.Type[] types;	// by ID: an expression's type
+  private final Object[] members;	// by ID: MethodDecl or VarDecl
+  private final String[] owners;	// by ID: the member's declaring class
+
+  // An empty table for p's nodes (literals are typed already)
+  //
+  public TypedAst(Ast.Program p) {
+    ArrayList<Object> order = new ArrayList<Object>();
+    ArrayList<Object> stack = new ArrayList<Object>();
+    for (Ast.ClassDecl c: p.classes) {
+      for (Ast.VarDecl v: c.flds)
+	number(v.init, order, stack);
+      for (Ast.MethodDecl m: c.mthds) {
+	for (Ast.VarDecl v: m.vars)
+	  number(v.init, order, stack);
+	for (Ast.Stmt s: m.stmts)
+	  number(s, order, stack);
+      }
+    }
+    int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, order.size()));	// at most half full
+    keys = new Object[1 << bits << 1];
+    keyIds = new int[keys.length];
+    shift = 31 - bits;
+    int n = 0;
+    for (Object o: order) {
+      int h = slot(o);
+      if (keys[h] == o)
+	continue;		// shared: numbered at its first occurrence
+      keys[h] = o;
+      keyIds[h] = n;
+      order.set(n++, o);
+    }
+    nodes = order.subList(0, n).toArray();
+    types = new Ast.Type[n];
+    members = new Object[n];
+    owners = new String[n];
+    for (int i = 0; i < n; i++) {
+      if (nodes[i] instanceof Ast.IntLit)
+	types[i] = Ast.IntType;
+      else if (nodes[i] instanceof Ast.BoolLit)
+	types[i] = Ast.BoolType;
+    }
+  }
+
+  // Append root's subtree to order, in preorder (without recursion, as
+  // statements and expressions may nest deeply)
+  //
+  private static void number(Object root, ArrayList<Object> order, ArrayList<Object> stack) {
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      Object o = stack.remove(stack.size() - 1);
+      if (o == null)
+	continue;
+      order.add(o);
+      switch (Checker.kind(o)) {
+      case Checker.BLOCK:    push(stack, (Object[]) ((Ast.Block) o).stmts); break;
+      case Checker.ASSIGN:   push(stack, ((Ast.Assign) o).lhs, ((Ast.Assign) o).rhs); break;
+      case Checker.CALLSTMT: push(stack, (Object[]) ((Ast.CallStmt) o).args); stack.add(((Ast.CallStmt) o).obj); break;
+      case Checker.IF:       push(stack, ((Ast.If) o).cond, ((Ast.If) o).s1, ((Ast.If) o).s2); break;
+      case Checker.WHILE:    push(stack, ((Ast.While) o).cond, ((Ast.While) o).s); break;
+      case Checker.PRINT:    stack.add(((Ast.Print) o).arg); break;
+      case Checker.RETURN:   stack.add(((Ast.Return) o).val); break;
+      case Checker.BINOP:    push(stack, ((Ast.Binop) o).e1, ((Ast.Binop) o).e2); break;
+      case Checker.UNOP:     stack.add(((Ast.Unop) o).e); break;
+      case Checker.CALL:     push(stack, (Object[]) ((Ast.Call) o).args); stack.add(((Ast.Call) o).obj); break;
+      case Checker.ARRAYELM: push(stack, ((Ast.ArrayElm) o).ar, ((Ast.ArrayElm) o).idx); break;
+      case Checker.FIELD:    stack.add(((Ast.Field) o).obj); break;
+      default:               break;	// leaves
+      }
+    }
+  }
+
+  private static void push(ArrayList<Object> stack, Object... children) {
+    for (int i = children.length - 1; i >= 0; i--)
+      stack.add(children[i]);
+  }
+
+  //------------------------------------------------------------------------------
+  // Recording (called by the Checker filling this in)
+  //----------
+
+  void type(Object n, Ast.Type t) {
+    int id = id(n);
+    if (id >= 0)
+      types[id] = t;
+  }
+
+  void member(Object n, Object decl, String owner) {
+    int id = id(n);
+    if (id >= 0) {
+      members[id] = decl;
+      owners[id] = owner;
+    }
+  }
+
+  //------------------------------------------------------------------------------
+  // Lookup
+  //-------
+
+  // Number of nodes
+  //
+  public int size() { return nodes.length; }
+
+  // ID of node n, or -1 if n is not a numbered node of the program
+  //
+  public int id(Object n) {
+    int h = slot(n);
+    return (keys[h] == n) ? keyIds[h] : -1;
+  }
+
+  // The slot of keys holding n, or the empty slot where n belongs
+  // (Fibonacci hashing on the identity hash, then linear probing; a
+  // flat table, as boxing every ID for an IdentityHashMap costs more than
+  // the rest of recording together)
+  //
+  private int slot(Object n) {
+    int mask = keys.length - 1;
+    int h = (System.identityHashCode(n) * 0x9e3779b9) >>> shift;
+    while (keys[h] != null && keys[h] != n)
+      h = (h + 1) & mask;
+    return h;
+  }
+
+  public Object node(int id) { return nodes[id]; }
+
+  // Type of expression id (null for a statement, or if not recorded)
+  //
+  public Ast.Type type(int id) { return types[id]; }
+
+  // Method called by Call or CallStmt id (null otherwise)
+  //
+  public Ast.MethodDecl method(int id) {
+    return (members[id] instanceof Ast.MethodDecl) ? (Ast.MethodDecl) members[id] : null;
+  }
+
+  // Field referred to by Field or Id id (null otherwise, e.g. for an Id
+  // naming a local variable or parameter)
+  //
+  public Ast.VarDecl field(int id) {
+    return (members[id] instanceof Ast.VarDecl) ? (Ast.VarDecl) members[id] : null;
+  }
+
+  // Name of the class declaring method(id) or field(id)
+  // - after read(), also set where the declaration itself is not in the
+  //   program (a library class), and method(id) and field(id) are null
+  //
+  public String owner(int id) { return owners[id]; }
+
+  //------------------------------------------------------------------------------
+  // Serialization
+  //--------------
+
+  // Write the table to f, replacing it atomically
+  //
+  public void write(File f) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    write(bytes);
+    CheckerLib.replace(f, bytes.toByteArray());
+  }
+
+  public void write(OutputStream os) throws IOException {
+    ArrayList<String> strings = new ArrayList<String>();
+    HashMap<String, Integer> sids = new HashMap<String, Integer>();
+    ArrayList<Ast.Type> tlist = new ArrayList<Ast.Type>();
+    HashMap<String, Integer> tids = new HashMap<String, Integer>();	// by toString()
+    int[] tref = new int[nodes.length];
+    int[] mref = new int[nodes.length];
+    for (int i = 0; i < nodes.length; i++) {
+      tref[i] = (types[i] == null) ? 0 : 1 + typeId(types[i], tlist, tids, strings, sids);
+      mref[i] = (owners[i] == null) ? -1 : stringId(owners[i], strings, sids);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    varint(out, strings.size());
+    for (String s: strings) {
+      byte[] b = s.getBytes(StandardCharsets.UTF_8);
+      varint(out, b.length);
+      out.write(b);
+    }
+    varint(out, tlist.size());
+    for (Ast.Type t: tlist) {
+      if (t instanceof Ast.IntType) {
+	out.writeByte(INT);
+      } else if (t instanceof Ast.BoolType) {
+	out.writeByte(BOOL);
+      } else if (t instanceof Ast.ObjType) {
+	out.writeByte(OBJ);
+	varint(out, sids.get(((Ast.ObjType) t).nm));
+      } else {
+	out.writeByte(ARRAY);
+	varint(out, tids.get(((Ast.ArrayType) t).et.toString()));
+      }
+    }
+    varint(out, nodes.length);
+    for (int i = 0; i < nodes.length; i++) {
+      varint(out, tref[i]);
+      if (mref[i] < 0) {
+	out.writeByte(NONE);
+      } else {
+	out.writeByte((members[i] instanceof Ast.VarDecl) ? FIELD : METHOD);
+	varint(out, mref[i]);
+      }
+    }
+    out.flush();
+    bytes.writeTo(os);
+  }
+
+  private static int typeId(Ast.Type t, ArrayList<Ast.Type> tlist, HashMap<String, Integer> tids,
+			    ArrayList<String> strings, HashMap<String, Integer> sids) {
+    String key = t.toString();
+    Integer id = tids.get(key);
+    if (id != null)
+      return id;
+    if (t instanceof Ast.ArrayType)
+      typeId(((Ast.ArrayType) t).et, tlist, tids, strings, sids);	// elements first
+    else if (t instanceof Ast.ObjType)
+      stringId(((Ast.ObjType) t).nm, strings, sids);
+    tids.put(key, tlist.size());
+    tlist.add(t);
+    return tlist.size() - 1;
+  }
+
+  private static int stringId(String s, ArrayList<String> strings, HashMap<String, Integer> sids) {
+    Integer id = sids.get(s);
+    if (id == null) {
+      id = strings.size();
+      sids.put(s, id);
+      strings.add(s);
+    }
+    return id;
+  }
+
+  private static void varint(DataOutputStream out, int v) throws IOException {
+    while ((v & ~0x7f) != 0) {
+      out.writeByte((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    out.writeByte(v);
+  }
+
+  // Load a table written for program p (the same program, as the ID
+  // numbering depends on it). Members are looked up by name in p's
+  // classes; a member of a class p does not declare keeps only its owner.
+  //
+  public static TypedAst read(InputStream is, Ast.Program p) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+    if (in.readInt() != MAGIC)
+      throw new IOException("not a typed-AST file");
+    String[] strings = new String[varint(in)];
+    for (int i = 0; i < strings.length; i++) {
+      byte[] b = new byte[varint(in)];
+      in.readFully(b);
+      strings[i] = new String(b, StandardCharsets.UTF_8);
+    }
+    Ast.Type[] tlist = new Ast.Type[varint(in)];
+    for (int i = 0; i < tlist.length; i++) {
+      int tag = in.readByte();
+      if (tag == INT)
+	tlist[i] = Ast.IntType;
+      else if (tag == BOOL)
+	tlist[i] = Ast.BoolType;
+      else if (tag == OBJ)
+	tlist[i] = new Ast.ObjType(strings[varint(in)]);
+      else if (tag == ARRAY)
+	tlist[i] = new Ast.ArrayType(tlist[varint(in)]);
+      else
+	throw new IOException("malformed typed-AST file");
+    }
+    TypedAst t = new TypedAst(p);
+    if (varint(in) != t.size())
+      throw new IOException("typed-AST file is for a different program");
+    HashMap<String, Ast.ClassDecl> classes = new HashMap<String, Ast.ClassDecl>();
+    for (Ast.ClassDecl c: p.classes)
+      classes.put(c.nm, c);
+    for (int i = 0; i < t.size(); i++) {
+      int tref = varint(in);
+      t.types[i] = (tref == 0) ? null : tlist[tref - 1];
+      int kind = in.readByte();
+      if (kind == NONE)
+	continue;
+      t.owners[i] = strings[varint(in)];
+      t.members[i] = declaration(classes.get(t.owners[i]), kind, memberName(t.nodes[i]));
+    }
+    return t;
+  }
+
+  private static int varint(DataInputStream in) throws IOException {
+    int v = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = in.readUnsignedByte();
+      v |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0)
+	return v;
+    }
+  }
+
+  private static String memberName(Object n) {
+    if (n instanceof Ast.Call)     return ((Ast.Call) n).nm;
+    if (n instanceof Ast.CallStmt) return ((Ast.CallStmt) n).nm;
+    if (n instanceof Ast.Field)    return ((Ast.Field) n).nm;
+    return ((Ast.Id) n).nm;
+  }
+
+  // The first method or field named nm in class c (as the checker's
+  // member tables resolve duplicates), or null
+  //
+  private static Object declaration(Ast.ClassDecl c, int kind, String nm) {
+    if (c == null)
+      return null;
+    if (kind == METHOD) {
+      for (Ast.MethodDecl m: c.mthds)
+	if (m.nm.equals(nm))
+	  return m;
+    } else {
+      for (Ast.VarDecl v: c.flds)
+	if (v.nm.equals(nm))
+	  return v;
+    }
+    return null;
+  }
+}